@@ -24,6 +24,10 @@ public class ConsistencyInfo implements Serializable {
 	private String destination;
 	// 消息内容
 	private String content;
+	// 内容编码器
+	private String codec;
+	// 内容是否压缩
+	private boolean compressed;
 	// 确认时间间隔(秒)
 	private int retryInterval;
 	// 重新同步时间
@@ -32,6 +36,10 @@ public class ConsistencyInfo implements Serializable {
 	private int retryCount;
 	// 重试状态(0:不需要/1:需要)
 	private RetryStatus retryStatus;
+	// 重试策略名称
+	private String retryPolicy;
+	// 优先级
+	private Priority priority = Priority.NORMAL;
 	// 发送确认时间
 	private Date confirmSentTime;
 	// 执行确认时间
@@ -304,6 +312,36 @@ public class ConsistencyInfo implements Serializable {
 		this.content = content;
 	}
 
+	/**
+	 * @return the codec
+	 */
+	public String getCodec() {
+		return codec;
+	}
+
+	/**
+	 * @param codec
+	 *            the codec to set
+	 */
+	public void setCodec(String codec) {
+		this.codec = codec;
+	}
+
+	/**
+	 * @return the compressed
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * @param compressed
+	 *            the compressed to set
+	 */
+	public void setCompressed(boolean compressed) {
+		this.compressed = compressed;
+	}
+
 	/**
 	 * @return the failCause
 	 */
@@ -319,4 +357,34 @@ public class ConsistencyInfo implements Serializable {
 		this.failCause = failCause;
 	}
 
+	/**
+	 * @return the retryPolicy
+	 */
+	public String getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * @param retryPolicy
+	 *            the retryPolicy to set
+	 */
+	public void setRetryPolicy(String retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	/**
+	 * @return the priority
+	 */
+	public Priority getPriority() {
+		return priority;
+	}
+
+	/**
+	 * @param priority
+	 *            the priority to set
+	 */
+	public void setPriority(Priority priority) {
+		this.priority = priority;
+	}
+
 }
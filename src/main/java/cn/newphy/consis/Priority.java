@@ -0,0 +1,24 @@
+package cn.newphy.consis;
+
+/**
+ * 消息优先级
+ * 
+ * @author Newphy
+ */
+public enum Priority {
+	/**
+	 * 低优先级, 如统计分析类消息
+	 */
+	LOW,
+
+	/**
+	 * 普通优先级
+	 */
+	NORMAL,
+
+	/**
+	 * 高优先级, 如支付确认类消息
+	 */
+	HIGH;
+
+}
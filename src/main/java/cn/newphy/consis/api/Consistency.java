@@ -6,6 +6,7 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 import cn.newphy.consis.ConfirmLevel;
+import cn.newphy.consis.Priority;
 
 @Target({ ElementType.METHOD})
 @Retention(RetentionPolicy.RUNTIME)
@@ -31,4 +32,18 @@ public @interface Consistency {
 	 */
 	int retryInterval() default 600;
 
+	/**
+	 * 重试策略名称, 为空时按目标地址或缺省策略
+	 * 
+	 * @return
+	 */
+	String retryPolicy() default "";
+
+	/**
+	 * 优先级
+	 * 
+	 * @return
+	 */
+	Priority priority() default Priority.NORMAL;
+
 }
@@ -9,11 +9,11 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.util.StringUtils;
 
-import com.alibaba.fastjson.JSON;
-
 import cn.newphy.consis.ConfirmLevel;
 import cn.newphy.consis.ConsistencyConst;
 import cn.newphy.consis.ConsistencyInfo;
+import cn.newphy.consis.codec.PayloadCodec;
+import cn.newphy.consis.codec.PayloadCodecs;
 import cn.newphy.consis.handler.ConsistencyHandler;
 import cn.newphy.consis.support.IDFetcher;
 
@@ -25,6 +25,12 @@ public class ConsistencyApiFactoryBean<T> implements FactoryBean<T> {
 
 	private ConsistencyHandler consistencyHandler;
 
+	// 消息内容编码器
+	private PayloadCodec payloadCodec = PayloadCodecs.getDefault();
+
+	// 消息内容压缩阈值(字节), 小于等于0时不压缩
+	private int compressThreshold = 0;
+
 	public ConsistencyApiFactoryBean() {
 	}
 
@@ -61,7 +67,7 @@ public class ConsistencyApiFactoryBean<T> implements FactoryBean<T> {
 		}
 		ConsistencyInfo cinfo = getConsistencyInfo(consistency, method, args);
 		Invocation invocation = new Invocation(method, args);
-		cinfo.setContent(JSON.toJSONString(invocation));
+		PayloadCodecs.encode(cinfo, payloadCodec, invocation, compressThreshold);
 		consistencyHandler.handle(cinfo);
 		return null;
 	}
@@ -76,6 +82,10 @@ public class ConsistencyApiFactoryBean<T> implements FactoryBean<T> {
 		if (consistency.retryInterval() == 0) {
 			cinfo.setRetryInterval(ConsistencyConst.DEFAULT_RETRY_INTERVAL);
 		}
+		if (StringUtils.hasText(consistency.retryPolicy())) {
+			cinfo.setRetryPolicy(consistency.retryPolicy());
+		}
+		cinfo.setPriority(consistency.priority());
 		String destination = consistency.value();
 		if(StringUtils.isEmpty(destination)) {
 			throw new IllegalArgumentException("ConsistencyMapping's value not allowed to be empty at "
@@ -129,4 +139,21 @@ public class ConsistencyApiFactoryBean<T> implements FactoryBean<T> {
 		this.consistencyHandler = consistencyHandler;
 	}
 
+	/**
+	 * @param payloadCodec
+	 *            the payloadCodec to set
+	 */
+	public void setPayloadCodec(PayloadCodec payloadCodec) {
+		this.payloadCodec = payloadCodec;
+		PayloadCodecs.register(payloadCodec);
+	}
+
+	/**
+	 * @param compressThreshold
+	 *            the compressThreshold to set
+	 */
+	public void setCompressThreshold(int compressThreshold) {
+		this.compressThreshold = compressThreshold;
+	}
+
 }
@@ -0,0 +1,334 @@
+package cn.newphy.consis.archive;
+
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.ConcurrentTaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.util.Assert;
+
+import cn.newphy.consis.ConfirmLevel;
+import cn.newphy.consis.dao.ConsistencyDao;
+import cn.newphy.consis.dao.ConsistencyDaoImpl;
+import cn.newphy.consis.dao.InlineConsistencyDaoImpl;
+import cn.newphy.consis.dialect.Dialect;
+import cn.newphy.consis.dialect.Dialects;
+import cn.newphy.consis.support.lock.DBDistributedLock;
+import cn.newphy.consis.support.lock.DistributedLock;
+
+/**
+ * 已完成消息归档任务
+ * <p>
+ * 定时将超过保留时间的已完成消息移入历史表或直接删除, 使当前表保持在进行中消息的规模:
+ * <ul>
+ * <li>按主键分页, 每批处理chunkSize条, 批次之间暂停chunkPause毫秒</li>
+ * <li>每次执行最多处理timeBudget毫秒, 剩余的留到下次执行</li>
+ * <li>保留时间自消息完成(确认执行或确认发送)起计算, 可按确认级别分别设置</li>
+ * </ul>
+ * 移入历史表时需要与当前表结构相同的历史表:
+ *
+ * <pre>
+ * CREATE TABLE t_consistency_history LIKE t_consistency;
+ * CREATE TABLE t_consistency_message_history LIKE t_consistency_message;
+ * </pre>
+ *
+ * @author Newphy
+ */
+public class ConsistencyArchiver implements ApplicationContextAware, InitializingBean, DisposableBean {
+	private Logger logger = LoggerFactory.getLogger(ConsistencyArchiver.class);
+
+	private static final String LOCK_MODULE = "CONSISTENCY_ARCHIVE";
+
+	private ApplicationContext applicationContext;
+
+	private DataSource dataSource;
+
+	private ConsistencyDao consistencyDao;
+
+	// 消息内容是否与一致性信息单表存储
+	private boolean inlineContent = false;
+
+	// 数据库方言, 为空时根据数据源识别
+	private Dialect dialect;
+
+	// 分布式锁
+	private DistributedLock distributedLock;
+
+	private TaskScheduler taskScheduler;
+
+	// 自行创建的调度器, 销毁时关闭
+	private ThreadPoolTaskScheduler ownedScheduler;
+
+	private ScheduledFuture<?> future;
+
+	// 是否移入历史表, 否则直接删除
+	private boolean moveToHistory = true;
+
+	// 缺省保留时间(小时)
+	private int retentionHours = 72;
+
+	// 各确认级别的保留时间(小时)
+	private Map<ConfirmLevel, Integer> levelRetentionHours = new EnumMap<>(ConfirmLevel.class);
+
+	// 执行间隔(毫秒)
+	private long interval = 600000;
+
+	// 每批条数
+	private int chunkSize = 500;
+
+	// 批次间暂停(毫秒)
+	private long chunkPause = 100;
+
+	// 每次执行的时间预算(毫秒)
+	private long timeBudget = 60000;
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		Assert.isTrue(dataSource != null || consistencyDao != null, "归档任务未设置数据源");
+		if (consistencyDao == null || distributedLock == null) {
+			Assert.notNull(dataSource, "归档任务未设置数据源");
+			if (dialect == null) {
+				dialect = Dialects.detect(dataSource);
+			}
+		}
+		if (consistencyDao == null) {
+			consistencyDao = inlineContent ? new InlineConsistencyDaoImpl(dataSource, null, dialect)
+					: new ConsistencyDaoImpl(dataSource, null, dialect);
+		}
+		if (distributedLock == null) {
+			distributedLock = new DBDistributedLock(dataSource, dialect);
+		}
+		start();
+	}
+
+	/**
+	 * 开始定时归档
+	 */
+	public void start() {
+		logger.info("~~~ start consistency archiver, moveToHistory={} ~~~", moveToHistory);
+		if (taskScheduler == null) {
+			taskScheduler = lookupScheduler();
+		}
+		future = taskScheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				execute();
+			}
+		}, new Date(System.currentTimeMillis() + interval), interval);
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		if (future != null) {
+			future.cancel(false);
+		}
+		if (ownedScheduler != null) {
+			ownedScheduler.shutdown();
+		}
+	}
+
+	private void execute() {
+		try {
+			String token = distributedLock.lock(LOCK_MODULE);
+			if (token == null) {
+				// 其他节点正在归档
+				return;
+			}
+			try {
+				int count = archive();
+				logger.debug("~~~ finish consistency archive, count=[{}] ~~~", count);
+			} finally {
+				distributedLock.unlock(token);
+			}
+		} catch (RuntimeException e) {
+			logger.error("~~~ consistency archive error ~~~", e);
+		}
+	}
+
+	/**
+	 * 执行一次归档
+	 *
+	 * @return 归档或删除的消息数
+	 */
+	public int archive() {
+		long deadline = System.currentTimeMillis() + timeBudget;
+		int total = 0;
+		for (ConfirmLevel level : ConfirmLevel.values()) {
+			Date before = new Date(System.currentTimeMillis() - getRetentionHours(level) * 3600000L);
+			long afterId = 0;
+			while (System.currentTimeMillis() < deadline) {
+				List<Long> ids = consistencyDao.queryFinishedIds(level, before, afterId, chunkSize);
+				if (ids.isEmpty()) {
+					break;
+				}
+				total += moveToHistory ? consistencyDao.archiveConsistencies(ids) : consistencyDao.deleteConsistencies(ids);
+				afterId = ids.get(ids.size() - 1);
+				if (ids.size() < chunkSize || !pause()) {
+					break;
+				}
+			}
+		}
+		return total;
+	}
+
+	private boolean pause() {
+		if (chunkPause <= 0) {
+			return true;
+		}
+		try {
+			Thread.sleep(chunkPause);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private int getRetentionHours(ConfirmLevel level) {
+		Integer hours = levelRetentionHours.get(level);
+		return hours != null ? hours : retentionHours;
+	}
+
+	private TaskScheduler lookupScheduler() {
+		if (applicationContext != null) {
+			Map<String, TaskScheduler> schedulers = applicationContext.getBeansOfType(TaskScheduler.class);
+			if (schedulers.size() > 0) {
+				return schedulers.values().iterator().next();
+			}
+			Map<String, ScheduledExecutorService> executors = applicationContext.getBeansOfType(ScheduledExecutorService.class);
+			if (executors.size() > 0) {
+				return new ConcurrentTaskScheduler(executors.values().iterator().next());
+			}
+		}
+		ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+		scheduler.setThreadNamePrefix("consistency-archiver-");
+		scheduler.setDaemon(true);
+		scheduler.initialize();
+		ownedScheduler = scheduler;
+		return scheduler;
+	}
+
+	@Override
+	public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
+		this.applicationContext = applicationContext;
+	}
+
+	/**
+	 * @param dataSource
+	 *            the dataSource to set
+	 */
+	public void setDataSource(DataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	/**
+	 * @param consistencyDao
+	 *            the consistencyDao to set
+	 */
+	public void setConsistencyDao(ConsistencyDao consistencyDao) {
+		this.consistencyDao = consistencyDao;
+	}
+
+	/**
+	 * @param inlineContent
+	 *            the inlineContent to set
+	 */
+	public void setInlineContent(boolean inlineContent) {
+		this.inlineContent = inlineContent;
+	}
+
+	/**
+	 * @param dialect
+	 *            the dialect to set
+	 */
+	public void setDialect(Dialect dialect) {
+		this.dialect = dialect;
+	}
+
+	/**
+	 * @param distributedLock
+	 *            the distributedLock to set
+	 */
+	public void setDistributedLock(DistributedLock distributedLock) {
+		this.distributedLock = distributedLock;
+	}
+
+	/**
+	 * @param taskScheduler
+	 *            the taskScheduler to set
+	 */
+	public void setTaskScheduler(TaskScheduler taskScheduler) {
+		this.taskScheduler = taskScheduler;
+	}
+
+	/**
+	 * @param moveToHistory
+	 *            是否移入历史表, 否则直接删除
+	 */
+	public void setMoveToHistory(boolean moveToHistory) {
+		this.moveToHistory = moveToHistory;
+	}
+
+	/**
+	 * @param retentionHours
+	 *            the retentionHours to set
+	 */
+	public void setRetentionHours(int retentionHours) {
+		this.retentionHours = retentionHours;
+	}
+
+	/**
+	 * @param levelRetentionHours
+	 *            确认级别到保留时间(小时)的映射, 未设置的级别使用缺省保留时间
+	 */
+	public void setLevelRetentionHours(Map<ConfirmLevel, Integer> levelRetentionHours) {
+		this.levelRetentionHours = new EnumMap<>(levelRetentionHours);
+	}
+
+	/**
+	 * @param interval
+	 *            the interval to set
+	 */
+	public void setInterval(long interval) {
+		this.interval = interval;
+	}
+
+	/**
+	 * @param chunkSize
+	 *            the chunkSize to set
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * @param chunkPause
+	 *            the chunkPause to set
+	 */
+	public void setChunkPause(long chunkPause) {
+		this.chunkPause = chunkPause;
+	}
+
+	/**
+	 * @param timeBudget
+	 *            the timeBudget to set
+	 */
+	public void setTimeBudget(long timeBudget) {
+		this.timeBudget = timeBudget;
+	}
+
+}
@@ -0,0 +1,327 @@
+package cn.newphy.consis.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONException;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.parser.ParserConfig;
+import com.alibaba.fastjson.util.FieldInfo;
+import com.alibaba.fastjson.util.TypeUtils;
+
+/**
+ * 紧凑二进制编码器
+ * <p>
+ * 对象直接按类型标记写出, JavaBean按fastjson的getter规则取属性(getter按类缓存), 属性名与JSON编码器一致:
+ * <ul>
+ * <li>整数和时间使用zigzag变长编码</li>
+ * <li>浮点数使用定长编码</li>
+ * <li>对象属性名在同一消息内只写一次, 之后以序号引用</li>
+ * <li>byte[]按原始字节写出</li>
+ * </ul>
+ * 解码时还原对象树后按目标类型转换, 与JSON编码器的类型映射保持一致.
+ *
+ * @author Newphy
+ */
+public class BinaryPayloadCodec implements PayloadCodec {
+
+	public static final String NAME = "binary";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final byte VERSION = 1;
+
+	private static final int T_NULL = 0;
+	private static final int T_TRUE = 1;
+	private static final int T_FALSE = 2;
+	private static final int T_INT = 3;
+	private static final int T_LONG = 4;
+	private static final int T_DOUBLE = 5;
+	private static final int T_FLOAT = 6;
+	private static final int T_STRING = 7;
+	private static final int T_DECIMAL = 8;
+	private static final int T_BIGINT = 9;
+	private static final int T_ARRAY = 10;
+	private static final int T_OBJECT = 11;
+	private static final int T_BYTES = 12;
+	private static final int T_DATE = 13;
+
+	private static final Map<Class<?>, List<FieldInfo>> getters = new ConcurrentHashMap<>();
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public boolean isBinary() {
+		return true;
+	}
+
+	@Override
+	public byte[] encode(Object obj) {
+		Writer writer = new Writer();
+		writer.out.write(VERSION);
+		writer.writeValue(obj);
+		return writer.out.toByteArray();
+	}
+
+	@Override
+	public <T> T decode(byte[] data, Type type) {
+		if (data.length == 0 || data[0] != VERSION) {
+			throw new IllegalArgumentException("不支持的二进制消息版本");
+		}
+		Reader reader = new Reader(data);
+		reader.pos = 1;
+		Object tree = reader.readValue();
+		return TypeUtils.cast(tree, type, ParserConfig.getGlobalInstance());
+	}
+
+	private static List<FieldInfo> getGetters(Class<?> clazz) {
+		List<FieldInfo> fields = getters.get(clazz);
+		if (fields == null) {
+			fields = TypeUtils.computeGetters(clazz, null);
+			getters.put(clazz, fields);
+		}
+		return fields;
+	}
+
+	private static class Writer {
+		private final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+		private final Map<String, Integer> keys = new HashMap<>();
+
+		void writeValue(Object value) {
+			if (value == null) {
+				out.write(T_NULL);
+			} else if (value instanceof Boolean) {
+				out.write(((Boolean) value) ? T_TRUE : T_FALSE);
+			} else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+				out.write(T_INT);
+				writeVarLong(zigzag(((Number) value).longValue()));
+			} else if (value instanceof Long) {
+				out.write(T_LONG);
+				writeVarLong(zigzag((Long) value));
+			} else if (value instanceof Double) {
+				out.write(T_DOUBLE);
+				writeFixed(Double.doubleToLongBits((Double) value), 8);
+			} else if (value instanceof Float) {
+				out.write(T_FLOAT);
+				writeFixed(Float.floatToIntBits((Float) value), 4);
+			} else if (value instanceof BigDecimal) {
+				out.write(T_DECIMAL);
+				writeString(value.toString());
+			} else if (value instanceof BigInteger) {
+				out.write(T_BIGINT);
+				writeString(value.toString());
+			} else if (value instanceof Date) {
+				out.write(T_DATE);
+				writeVarLong(zigzag(((Date) value).getTime()));
+			} else if (value instanceof byte[]) {
+				byte[] bytes = (byte[]) value;
+				out.write(T_BYTES);
+				writeVarLong(bytes.length);
+				out.write(bytes, 0, bytes.length);
+			} else if (value instanceof Map) {
+				Map<?, ?> map = (Map<?, ?>) value;
+				out.write(T_OBJECT);
+				writeVarLong(map.size());
+				for (Map.Entry<?, ?> entry : map.entrySet()) {
+					writeKey(String.valueOf(entry.getKey()));
+					writeValue(entry.getValue());
+				}
+			} else if (value instanceof Collection) {
+				Collection<?> collection = (Collection<?>) value;
+				out.write(T_ARRAY);
+				writeVarLong(collection.size());
+				for (Object item : collection) {
+					writeValue(item);
+				}
+			} else if (value instanceof Enum) {
+				out.write(T_STRING);
+				writeString(((Enum<?>) value).name());
+			} else if (value.getClass().isArray()) {
+				int length = Array.getLength(value);
+				out.write(T_ARRAY);
+				writeVarLong(length);
+				for (int i = 0; i < length; i++) {
+					writeValue(Array.get(value, i));
+				}
+			} else if (ParserConfig.getGlobalInstance().isPrimitive(value.getClass())) {
+				out.write(T_STRING);
+				writeString(value.toString());
+			} else {
+				writeBean(value);
+			}
+		}
+
+		void writeBean(Object bean) {
+			List<FieldInfo> fields = getGetters(bean.getClass());
+			out.write(T_OBJECT);
+			writeVarLong(fields.size());
+			try {
+				for (FieldInfo field : fields) {
+					writeKey(field.getName());
+					writeValue(field.get(bean));
+				}
+			} catch (Exception e) {
+				throw new JSONException("二进制编码出错, class=" + bean.getClass().getName(), e);
+			}
+		}
+
+		void writeKey(String key) {
+			Integer index = keys.get(key);
+			if (index != null) {
+				writeVarLong(((long) index << 1) | 1);
+			} else {
+				keys.put(key, keys.size());
+				byte[] bytes = key.getBytes(UTF8);
+				writeVarLong((long) bytes.length << 1);
+				out.write(bytes, 0, bytes.length);
+			}
+		}
+
+		void writeString(String str) {
+			byte[] bytes = str.getBytes(UTF8);
+			writeVarLong(bytes.length);
+			out.write(bytes, 0, bytes.length);
+		}
+
+		void writeVarLong(long v) {
+			while ((v & ~0x7FL) != 0) {
+				out.write((int) ((v & 0x7F) | 0x80));
+				v >>>= 7;
+			}
+			out.write((int) v);
+		}
+
+		void writeFixed(long v, int bytes) {
+			for (int i = bytes - 1; i >= 0; i--) {
+				out.write((int) (v >>> (i * 8)));
+			}
+		}
+
+		static long zigzag(long v) {
+			return (v << 1) ^ (v >> 63);
+		}
+	}
+
+	private static class Reader {
+		private final byte[] data;
+		private final List<String> keys = new ArrayList<>();
+		private int pos;
+
+		Reader(byte[] data) {
+			this.data = data;
+		}
+
+		Object readValue() {
+			int tag = data[pos++];
+			switch (tag) {
+			case T_NULL:
+				return null;
+			case T_TRUE:
+				return Boolean.TRUE;
+			case T_FALSE:
+				return Boolean.FALSE;
+			case T_INT:
+				return (int) unzigzag(readVarLong());
+			case T_LONG:
+				return unzigzag(readVarLong());
+			case T_DOUBLE:
+				return Double.longBitsToDouble(readFixed(8));
+			case T_FLOAT:
+				return Float.intBitsToFloat((int) readFixed(4));
+			case T_STRING:
+				return readString();
+			case T_DECIMAL:
+				return new BigDecimal(readString());
+			case T_BIGINT:
+				return new BigInteger(readString());
+			case T_DATE:
+				return new Date(unzigzag(readVarLong()));
+			case T_BYTES: {
+				int len = (int) readVarLong();
+				byte[] bytes = new byte[len];
+				System.arraycopy(data, pos, bytes, 0, len);
+				pos += len;
+				return bytes;
+			}
+			case T_OBJECT: {
+				int size = (int) readVarLong();
+				JSONObject obj = new JSONObject(size, true);
+				for (int i = 0; i < size; i++) {
+					String key = readKey();
+					obj.put(key, readValue());
+				}
+				return obj;
+			}
+			case T_ARRAY: {
+				int size = (int) readVarLong();
+				JSONArray array = new JSONArray(size);
+				for (int i = 0; i < size; i++) {
+					array.add(readValue());
+				}
+				return array;
+			}
+			default:
+				throw new IllegalArgumentException("无法识别的二进制类型标记: " + tag);
+			}
+		}
+
+		String readKey() {
+			long v = readVarLong();
+			if ((v & 1) == 1) {
+				return keys.get((int) (v >>> 1));
+			}
+			int len = (int) (v >>> 1);
+			String key = new String(data, pos, len, UTF8);
+			pos += len;
+			keys.add(key);
+			return key;
+		}
+
+		String readString() {
+			int len = (int) readVarLong();
+			String str = new String(data, pos, len, UTF8);
+			pos += len;
+			return str;
+		}
+
+		long readVarLong() {
+			long result = 0;
+			int shift = 0;
+			while (true) {
+				byte b = data[pos++];
+				result |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return result;
+				}
+				shift += 7;
+			}
+		}
+
+		long readFixed(int bytes) {
+			long v = 0;
+			for (int i = 0; i < bytes; i++) {
+				v = (v << 8) | (data[pos++] & 0xFF);
+			}
+			return v;
+		}
+
+		static long unzigzag(long v) {
+			return (v >>> 1) ^ -(v & 1);
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package cn.newphy.consis.codec;
+
+import java.lang.reflect.Type;
+
+import com.alibaba.fastjson.JSON;
+
+/**
+ * JSON编码器, 缺省编码器
+ * 
+ * @author Newphy
+ */
+public class JsonPayloadCodec implements PayloadCodec {
+
+	public static final String NAME = "json";
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public boolean isBinary() {
+		return false;
+	}
+
+	@Override
+	public byte[] encode(Object obj) {
+		return JSON.toJSONBytes(obj);
+	}
+
+	@Override
+	public <T> T decode(byte[] data, Type type) {
+		return JSON.parseObject(data, type);
+	}
+
+}
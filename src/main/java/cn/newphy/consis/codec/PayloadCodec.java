@@ -0,0 +1,46 @@
+package cn.newphy.consis.codec;
+
+import java.lang.reflect.Type;
+
+/**
+ * 消息内容编解码器
+ * <p>
+ * 编码器名称随消息内容一起保存, 并通过消息属性{@code _codec}传递给消费端
+ * 
+ * @author Newphy
+ */
+public interface PayloadCodec {
+
+	/**
+	 * 编码器名称
+	 * 
+	 * @return
+	 */
+	String getName();
+
+	/**
+	 * 是否二进制编码
+	 * <p>
+	 * 二进制内容以BytesMessage发送, 文本内容以TextMessage发送
+	 * 
+	 * @return
+	 */
+	boolean isBinary();
+
+	/**
+	 * 编码
+	 * 
+	 * @param obj
+	 * @return
+	 */
+	byte[] encode(Object obj);
+
+	/**
+	 * 解码
+	 * 
+	 * @param data
+	 * @param type
+	 * @return
+	 */
+	<T> T decode(byte[] data, Type type);
+}
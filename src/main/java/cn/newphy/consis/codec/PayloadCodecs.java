@@ -0,0 +1,222 @@
+package cn.newphy.consis.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.springframework.util.StringUtils;
+
+import com.alibaba.fastjson.util.Base64;
+
+import cn.newphy.consis.ConsistencyInfo;
+
+/**
+ * 编码器注册表
+ * <p>
+ * 数据库中的消息内容统一以文本保存: 文本编码器直接保存, 二进制编码器和压缩内容保存其Base64形式.
+ * Base64比原始字节多约1/3, 换来的是内容列、死信表和历史表不需改为二进制类型, 新旧数据共用同一列;
+ * 压缩只在Base64之后仍小于不压缩的保存形式时使用, 因此压缩不会增大占用. 传输时仍为原始字节.
+ * <p>
+ * codec和compressed列需有缺省值(codec缺省为空, compressed缺省为0), 未写入这两列的旧版本数据按未压缩的JSON处理.
+ *
+ * @author Newphy
+ */
+public abstract class PayloadCodecs {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final Map<String, PayloadCodec> codecs = new ConcurrentHashMap<>();
+
+	private static final PayloadCodec DEFAULT_CODEC = new JsonPayloadCodec();
+
+	static {
+		register(DEFAULT_CODEC);
+		register(new BinaryPayloadCodec());
+	}
+
+	/**
+	 * 注册编码器
+	 *
+	 * @param codec
+	 */
+	public static void register(PayloadCodec codec) {
+		codecs.put(codec.getName(), codec);
+	}
+
+	/**
+	 * 获得编码器, 名称为空时返回JSON编码器
+	 *
+	 * @param name
+	 * @return
+	 */
+	public static PayloadCodec getCodec(String name) {
+		if (!StringUtils.hasText(name)) {
+			return DEFAULT_CODEC;
+		}
+		PayloadCodec codec = codecs.get(name);
+		if (codec == null) {
+			throw new IllegalStateException("没有注册编码器[" + name + "]");
+		}
+		return codec;
+	}
+
+	/**
+	 * 获得缺省编码器
+	 *
+	 * @return
+	 */
+	public static PayloadCodec getDefault() {
+		return DEFAULT_CODEC;
+	}
+
+	/**
+	 * 编码消息内容
+	 * <p>
+	 * 编码后超过压缩阈值的内容使用Deflate压缩, 压缩后的保存形式没有变小时保持原样
+	 *
+	 * @param cinfo
+	 * @param codec
+	 * @param obj
+	 * @param compressThreshold
+	 *            压缩阈值(字节), 小于等于0时不压缩
+	 */
+	public static void encode(ConsistencyInfo cinfo, PayloadCodec codec, Object obj, int compressThreshold) {
+		byte[] data = codec.encode(obj);
+		cinfo.setCodec(codec.getName());
+		if (compressThreshold > 0 && data.length >= compressThreshold) {
+			byte[] compressed = compress(data);
+			// 按保存形式比较, 压缩内容需Base64编码
+			int plainSize = codec.isBinary() ? base64Length(data.length) : data.length;
+			if (base64Length(compressed.length) < plainSize) {
+				cinfo.setCompressed(true);
+				cinfo.setContent(encodeBase64(compressed));
+				return;
+			}
+		}
+		cinfo.setCompressed(false);
+		cinfo.setContent(codec.isBinary() ? encodeBase64(data) : new String(data, UTF8));
+	}
+
+	/**
+	 * 消息内容是否以二进制传输
+	 *
+	 * @param cinfo
+	 * @return
+	 */
+	public static boolean isBinaryContent(ConsistencyInfo cinfo) {
+		return cinfo.isCompressed() || getCodec(cinfo.getCodec()).isBinary();
+	}
+
+	/**
+	 * 获得消息内容的传输字节, 压缩内容保持压缩状态
+	 *
+	 * @param cinfo
+	 * @return
+	 */
+	public static byte[] contentBytes(ConsistencyInfo cinfo) {
+		String content = cinfo.getContent();
+		if (content == null) {
+			return new byte[0];
+		}
+		return isBinaryContent(cinfo) ? Base64.decodeFast(content) : content.getBytes(UTF8);
+	}
+
+	/**
+	 * Deflate压缩
+	 *
+	 * @param data
+	 * @return
+	 */
+	public static byte[] compress(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+			byte[] buf = new byte[8192];
+			while (!deflater.finished()) {
+				int n = deflater.deflate(buf);
+				out.write(buf, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Deflate解压
+	 *
+	 * @param data
+	 * @return
+	 */
+	public static byte[] decompress(byte[] data) {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(data);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+			byte[] buf = new byte[8192];
+			while (!inflater.finished()) {
+				int n = inflater.inflate(buf);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IllegalArgumentException("压缩内容不完整");
+				}
+				out.write(buf, 0, n);
+			}
+			return out.toByteArray();
+		} catch (DataFormatException e) {
+			throw new IllegalArgumentException("压缩内容格式错误", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * 字节转为文本
+	 *
+	 * @param data
+	 * @return
+	 */
+	public static String toText(byte[] data) {
+		return new String(data, UTF8);
+	}
+
+	private static int base64Length(int size) {
+		return (size + 2) / 3 * 4;
+	}
+
+	/**
+	 * Base64编码
+	 *
+	 * @param data
+	 * @return
+	 */
+	public static String encodeBase64(byte[] data) {
+		char[] ca = Base64.CA;
+		int len = data.length;
+		char[] out = new char[base64Length(len)];
+		int i = 0;
+		int j = 0;
+		for (int even = len / 3 * 3; i < even;) {
+			int v = (data[i++] & 0xff) << 16 | (data[i++] & 0xff) << 8 | (data[i++] & 0xff);
+			out[j++] = ca[(v >>> 18) & 0x3f];
+			out[j++] = ca[(v >>> 12) & 0x3f];
+			out[j++] = ca[(v >>> 6) & 0x3f];
+			out[j++] = ca[v & 0x3f];
+		}
+		int left = len - i;
+		if (left > 0) {
+			int v = ((data[i] & 0xff) << 10) | (left == 2 ? ((data[len - 1] & 0xff) << 2) : 0);
+			out[j++] = ca[v >> 12];
+			out[j++] = ca[(v >>> 6) & 0x3f];
+			out[j++] = left == 2 ? ca[v & 0x3f] : '=';
+			out[j++] = '=';
+		}
+		return new String(out);
+	}
+
+}
@@ -1,8 +1,11 @@
 package cn.newphy.consis.dao;
 
+import java.util.Date;
 import java.util.List;
 
+import cn.newphy.consis.ConfirmLevel;
 import cn.newphy.consis.ConsistencyInfo;
+import cn.newphy.consis.Priority;
 
 public interface ConsistencyDao {
 
@@ -22,6 +25,14 @@ public interface ConsistencyDao {
 	 */
 	ConsistencyInfo getDetail(long id);
 
+	/**
+	 * 批量获得一致性详情信息
+	 * 
+	 * @param ids
+	 * @return
+	 */
+	List<ConsistencyInfo> getDetails(List<Long> ids);
+
 	/**
 	 * 保存一致性消息
 	 * 
@@ -29,6 +40,15 @@ public interface ConsistencyDao {
 	 */
 	void addConsistency(ConsistencyInfo cinfo);
 
+	/**
+	 * 批量保存一致性消息
+	 * <p>
+	 * 一致性信息和消息内容各用一次JDBC批量写入
+	 * 
+	 * @param cinfos
+	 */
+	void addConsistencies(List<ConsistencyInfo> cinfos);
+
 	/**
 	 * 更新一致性信息.
 	 * 
@@ -36,6 +56,20 @@ public interface ConsistencyDao {
 	 */
 	void updateConsistency(ConsistencyInfo cinfo);
 
+	/**
+	 * 批量更新一致性信息
+	 * 
+	 * @param cinfos
+	 */
+	void updateConsistencies(List<ConsistencyInfo> cinfos);
+
+
+	/**
+	 * 按各消息的重试时间批量推迟, 不改变重试次数
+	 * 
+	 * @param cinfos
+	 */
+	void delayRetries(List<ConsistencyInfo> cinfos);
 
 	/**
 	 * 获取重试列表
@@ -43,4 +77,177 @@ public interface ConsistencyDao {
 	 * @return
 	 */
 	List<ConsistencyInfo> queryRetryList(int maxRetry);
+
+	/**
+	 * 获取重试列表及消息内容
+	 * <p>
+	 * 一次查询返回待重试消息的完整信息, 不再逐条查询详情
+	 * 
+	 * @param maxRetry
+	 * @param dueTime
+	 *            重试时间早于该时间的消息
+	 * @return
+	 */
+	List<ConsistencyInfo> queryRetryDetails(int maxRetry, Date dueTime);
+
+	/**
+	 * 获取指定目标地址或优先级的重试列表及消息内容
+	 * 
+	 * @param maxRetry
+	 * @param dueTime
+	 *            重试时间早于该时间的消息
+	 * @param destination
+	 *            目标地址, 为空时不限
+	 * @param priority
+	 *            优先级, 为空时不限
+	 * @return
+	 */
+	List<ConsistencyInfo> queryRetryDetails(int maxRetry, Date dueTime, String destination, Priority priority);
+
+	/**
+	 * 获取有到期重试消息的目标地址
+	 * 
+	 * @param dueTime
+	 *            重试时间早于该时间的消息
+	 * @param priority
+	 *            优先级, 为空时不限
+	 * @return
+	 */
+	List<String> queryRetryDestinations(Date dueTime, Priority priority);
+
+	/**
+	 * 认领并获取重试列表及消息内容
+	 * <p>
+	 * 到期且未被认领或认领已过期的消息写入认领标识和租约到期时间, 多个节点可同时补偿互不重复
+	 * 
+	 * @param maxRetry
+	 * @param dueTime
+	 *            重试时间早于该时间的消息
+	 * @param claimToken
+	 *            认领标识
+	 * @param leaseSeconds
+	 *            认领租约(秒)
+	 * @return
+	 */
+	List<ConsistencyInfo> claimRetryDetails(int maxRetry, Date dueTime, String claimToken, int leaseSeconds);
+
+	/**
+	 * 认领并获取指定目标地址或优先级的重试列表及消息内容
+	 * 
+	 * @param maxRetry
+	 * @param dueTime
+	 *            重试时间早于该时间的消息
+	 * @param destination
+	 *            目标地址, 为空时不限
+	 * @param priority
+	 *            优先级, 为空时不限
+	 * @param claimToken
+	 *            认领标识
+	 * @param leaseSeconds
+	 *            认领租约(秒)
+	 * @return
+	 */
+	List<ConsistencyInfo> claimRetryDetails(int maxRetry, Date dueTime, String destination, Priority priority,
+			String claimToken, int leaseSeconds);
+
+	/**
+	 * 延长认领租约, 已释放认领的消息不受影响
+	 * 
+	 * @param claimTokens
+	 *            认领标识
+	 * @param leaseSeconds
+	 *            自当前时间起的认领租约(秒)
+	 * @return 续期的消息数
+	 */
+	int renewClaims(List<String> claimTokens, int leaseSeconds);
+
+	/**
+	 * 按编号认领到期消息并获取消息内容
+	 * <p>
+	 * 只认领仍需重试、已到期且未被认领或认领已过期的消息, 其余编号跳过
+	 * 
+	 * @param ids
+	 * @param dueTime
+	 *            重试时间早于该时间的消息
+	 * @param claimToken
+	 *            认领标识
+	 * @param leaseSeconds
+	 *            认领租约(秒)
+	 * @return
+	 */
+	List<ConsistencyInfo> claimDetails(List<Long> ids, Date dueTime, String claimToken, int leaseSeconds);
+
+	/**
+	 * 按主键顺序查询已完成的一致性编号
+	 * <p>
+	 * 已完成指不再重试且没有失败原因的消息, 以上一批最大编号为起点分页, 不使用OFFSET
+	 * 
+	 * @param confirmLevel
+	 *            确认级别
+	 * @param before
+	 *            完成时间早于该时间的消息, 完成时间依次取确认执行时间、确认发送时间和创建时间
+	 * @param afterId
+	 *            起始编号(不含)
+	 * @param limit
+	 * @return
+	 */
+	List<Long> queryFinishedIds(ConfirmLevel confirmLevel, Date before, long afterId, int limit);
+
+	/**
+	 * 将已完成的一致性信息及消息内容移入历史表, 并从当前表删除
+	 * 
+	 * @param ids
+	 * @return 移动的一致性信息数
+	 */
+	int archiveConsistencies(List<Long> ids);
+
+	/**
+	 * 删除已完成的一致性信息及消息内容
+	 * 
+	 * @param ids
+	 * @return 删除的一致性信息数
+	 */
+	int deleteConsistencies(List<Long> ids);
+
+	/**
+	 * 删除一致性信息及消息内容, 不判断状态
+	 * 
+	 * @param ids
+	 * @return 删除的一致性信息数
+	 */
+	int removeConsistencies(List<Long> ids);
+
+	/**
+	 * 批量写入发送审计记录
+	 * 
+	 * @param cinfos
+	 */
+	void addAudits(List<ConsistencyInfo> cinfos);
+
+	/**
+	 * 将不再重试的消息移入死信表, 并删除一致性信息及消息内容
+	 * 
+	 * @param cinfos
+	 *            包含消息内容的一致性信息
+	 */
+	void moveToDead(List<ConsistencyInfo> cinfos);
+
+	/**
+	 * 按主键顺序查询死信及消息内容
+	 * 
+	 * @param query
+	 * @param afterId
+	 *            起始编号(不含)
+	 * @param limit
+	 * @return
+	 */
+	List<ConsistencyInfo> queryDeadLetters(DeadLetterQuery query, long afterId, int limit);
+
+	/**
+	 * 将死信重新写入一致性表等待发送, 并从死信表删除
+	 * 
+	 * @param cinfos
+	 *            已重置发送状态的死信, 写入后编号为新的一致性编号
+	 */
+	void requeueDeadLetters(List<ConsistencyInfo> cinfos);
 }
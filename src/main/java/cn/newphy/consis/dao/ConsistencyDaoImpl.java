@@ -7,101 +7,438 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.sql.DataSource;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.JdbcUtils;
 import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import cn.newphy.consis.ConfirmLevel;
 import cn.newphy.consis.ConfirmStatus;
 import cn.newphy.consis.ConsistencyInfo;
+import cn.newphy.consis.Priority;
 import cn.newphy.consis.RetryStatus;
+import cn.newphy.consis.dialect.Dialect;
+import cn.newphy.consis.dialect.Dialects;
+import cn.newphy.consis.support.id.IdGenerator;
 
+/**
+ * 一致性DAO, 消息内容保存在t_consistency_message中
+ * <p>
+ * 消息表的编码器和压缩标记列需有缺省值, 升级期间未写入这两列的旧版本仍可插入:
+ *
+ * <pre>
+ * ALTER TABLE t_consistency_message ADD COLUMN codec VARCHAR(16) DEFAULT NULL;
+ * ALTER TABLE t_consistency_message ADD COLUMN compressed TINYINT NOT NULL DEFAULT 0;
+ * </pre>
+ */
 public class ConsistencyDaoImpl implements ConsistencyDao {
 	private Logger logger = LoggerFactory.getLogger(ConsistencyDaoImpl.class);
 	
-	private JdbcTemplate jdbcTemplate;
+	private static final String INSERT_CONSISTENCY_SQL = "INSERT INTO t_consistency (tx_id, biz_id, destination, confirm_level, confirm_status, confirm_destination, retry_interval, retry_time, retry_status, retry_policy, priority) "
+			+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	private static final String INSERT_CONSISTENCY_WITH_ID_SQL = "INSERT INTO t_consistency (id, tx_id, biz_id, destination, confirm_level, confirm_status, confirm_destination, retry_interval, retry_time, retry_status, retry_policy, priority) "
+			+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	private static final String UPDATE_CONSISTENCY_SQL = "UPDATE t_consistency "
+			+ "SET first_sent_time = ?, retry_time = ?, retry_count = ?, retry_status = ?, confirm_status = ?,  confirm_sent_time = ?, confirm_execute_time = ?, execute_host = ? , fail_cause = ?";
+
+	private static final int[] UPDATE_CONSISTENCY_TYPES = new int[] { Types.TIMESTAMP, Types.TIMESTAMP, Types.INTEGER,
+			Types.TINYINT, Types.TINYINT, Types.TIMESTAMP, Types.TIMESTAMP, Types.VARCHAR, Types.VARCHAR, Types.BIGINT };
+
+	private static final String CONSISTENCY_COLUMNS = "t.id, t.tx_id, t.biz_id, t.destination, t.first_sent_time, t.retry_interval, t.retry_time, t.retry_count, t.retry_status, t.retry_policy, t.priority, "
+			+ "t.confirm_level, t.confirm_status, t.confirm_destination, t.confirm_sent_time, t.confirm_execute_time, t.execute_host, t.fail_cause, t.create_time";
+
+	private static final String SELECT_BY_TX_ID_SQL = "SELECT " + CONSISTENCY_COLUMNS + " FROM t_consistency t WHERE t.tx_id = ?";
+
+	private static final String SELECT_ID_BY_TX_IDS_SQL = "SELECT id, tx_id FROM t_consistency WHERE tx_id IN ";
+
+	private static final String CLAIM_SET = "claim_token = ?, claim_expire = ?";
+
+	private static final String CLAIM_CONDITION = " AND (claim_expire IS NULL OR claim_expire < ?)";
+
+	private static final String CLAIM_BY_IDS_SQL = "UPDATE t_consistency SET " + CLAIM_SET + " WHERE id IN ";
+
+	private static final String CLAIM_DUE_BY_IDS_SQL = "UPDATE t_consistency SET " + CLAIM_SET
+			+ " WHERE retry_status = 1 AND retry_time < ?" + CLAIM_CONDITION + " AND id IN ";
+
+	private static final String DELAY_RETRIES_SQL = "UPDATE t_consistency SET retry_time = ?";
+
+	// 更新时释放认领, 只在开启认领时使用, 未开启时不需要认领列
+	private static final String RELEASE_CLAIM_SET = ", claim_token = NULL, claim_expire = NULL";
+
+	private static final String RENEW_CLAIMS_SQL = "UPDATE t_consistency SET claim_expire = ? WHERE claim_token IN ";
+
+	private static final int[] DELAY_RETRIES_TYPES = new int[] { Types.TIMESTAMP, Types.BIGINT };
+
+	// 只处理仍为已完成状态的行, 查询后状态被改变的行保留
+	private static final String FINISHED_CONDITION = "retry_status = 0 AND (fail_cause IS NULL OR fail_cause = '')";
+
+	private static final String ARCHIVE_SQL = "INSERT INTO t_consistency_history SELECT * FROM t_consistency WHERE "
+			+ FINISHED_CONDITION + " AND id IN ";
+
+	private static final String SELECT_ARCHIVED_SQL = "SELECT id FROM t_consistency_history WHERE id IN ";
+
+	private static final String ARCHIVE_MESSAGE_SQL = "INSERT INTO t_consistency_message_history SELECT * FROM t_consistency_message WHERE consistency_id IN ";
+
+	private static final String DELETE_FINISHED_SQL = "DELETE FROM t_consistency WHERE " + FINISHED_CONDITION + " AND id IN ";
+
+	private static final String DELETE_CONSISTENCY_SQL = "DELETE FROM t_consistency WHERE id IN ";
+
+	private static final String DELETE_MESSAGE_SQL = "DELETE FROM t_consistency_message WHERE consistency_id IN ";
+
+	private static final String SELECT_IDS_SQL = "SELECT id FROM t_consistency WHERE id IN ";
+
+	private static final String DELETE_DEAD_SQL = "DELETE FROM t_consistency_dead WHERE id IN ";
+
+	private static final String[] AUDIT_COLUMNS = new String[] { "consistency_id", "tx_id", "biz_id", "destination",
+			"retry_count", "sent_time" };
+
+	// LIKE转义字符, 不使用反斜杠以免各数据库对字符串字面量的处理不同
+	private static final char LIKE_ESCAPE = '!';
+
+	// 按tx_id回查主键时每批的IN参数个数
+	private static final int IN_CHUNK_SIZE = 500;
+
+	// IN条件缓存的最大参数个数
+	private static final int MAX_CACHED_IN_SIZE = 1024;
+
+	private static final String[] IN_CLAUSES = new String[MAX_CACHED_IN_SIZE + 1];
+
+	private static final String INSERT_DEAD_SQL = "INSERT INTO t_consistency_dead (id, tx_id, biz_id, destination, confirm_level, confirm_destination, retry_interval, retry_count, retry_policy, priority, first_sent_time, fail_cause, content, codec, compressed, create_time, dead_time) "
+			+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	private static final String INSERT_MESSAGE_SQL = "INSERT INTO t_consistency_message (consistency_id, destination, content, codec, compressed) VALUES (?, ?, ?, ?, ?)";
+
+	protected JdbcTemplate jdbcTemplate;
+
+	// 主键生成器, 为空时使用数据库自增主键
+	protected IdGenerator idGenerator;
+
+	// 是否按行认领补偿, 开启后更新时释放认领, 需要claim_token和claim_expire列
+	protected boolean claimEnabled = false;
+
+	// 认领时是否使用SELECT ... FOR UPDATE SKIP LOCKED, 否则使用条件UPDATE
+	protected boolean skipLocked = false;
+
+	// 重试窗口(小时), 只重试该时间内创建的消息, 小于等于0时不限
+	protected int retryWindowHours = 0;
+
+	// 数据库方言
+	protected Dialect dialect;
+
+	private TransactionTemplate transactionTemplate;
+
+	// 以下语句按方言和配置生成, 重试相关语句的下标见retryVariant
+	private String updateConsistencySql;
+
+	private String delayRetriesSql;
+
+	private String detailByIdSql;
+
+	private String detailByIdsSql;
+
+	private String claimedDetailSql;
+
+	private String retryListSql;
+
+	private String[] retryDetailSqls;
+
+	private String[] retryDestinationSqls;
+
+	private String[] claimSelectSqls;
+
+	private String[] claimUpdateSqls;
+
+	private String finishedSql;
+
+	private String auditSql;
+
+	// 下标为死信查询条件的位组合, 见deadLetterVariant
+	private String[] deadLetterSqls;
 
 	public ConsistencyDaoImpl(DataSource dataSource) {
+		this(dataSource, null);
+	}
+
+	public ConsistencyDaoImpl(DataSource dataSource, IdGenerator idGenerator) {
+		this(dataSource, idGenerator, Dialects.detect(dataSource));
+	}
+
+	public ConsistencyDaoImpl(DataSource dataSource, IdGenerator idGenerator, Dialect dialect) {
 		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.idGenerator = idGenerator;
+		this.dialect = dialect;
+		this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+		this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		prepareStatements();
+	}
+
+	/**
+	 * 生成语句, 方言或重试窗口变化时重新生成
+	 */
+	private void prepareStatements() {
+		String releaseClaim = claimEnabled ? RELEASE_CLAIM_SET : "";
+		updateConsistencySql = UPDATE_CONSISTENCY_SQL + releaseClaim + " WHERE id = ?";
+		delayRetriesSql = DELAY_RETRIES_SQL + releaseClaim + " WHERE id = ?";
+		detailByIdSql = detailSql("t.id = ?");
+		detailByIdsSql = detailSql("t.id IN ");
+		claimedDetailSql = detailSql("t.claim_token = ?");
+		retryListSql = dialect.limit("SELECT id, tx_id FROM t_consistency WHERE retry_status = 1 AND retry_time < ? ORDER BY retry_time");
+		retryDetailSqls = new String[4];
+		claimSelectSqls = new String[4];
+		claimUpdateSqls = new String[4];
+		retryDestinationSqls = new String[2];
+		for (int v = 0; v < 4; v++) {
+			boolean byPriority = (v & 1) != 0;
+			boolean byDestination = (v & 2) != 0;
+			retryDetailSqls[v] = dialect.limit(detailSql(retryCondition("t.", byDestination, byPriority) + " ORDER BY t.retry_time"));
+			String condition = retryCondition("", byDestination, byPriority) + CLAIM_CONDITION;
+			claimSelectSqls[v] = dialect.claimSelectSql("t_consistency", condition, "retry_time");
+			claimUpdateSqls[v] = dialect.claimUpdateSql("t_consistency", CLAIM_SET, condition, "retry_time");
+			if (!byDestination) {
+				retryDestinationSqls[v] = retryDestinationSql(byPriority);
+			}
+		}
+		finishedSql = dialect.limit("SELECT id FROM t_consistency WHERE id > ? AND retry_status = 0 AND confirm_level = ? "
+				+ "AND (fail_cause IS NULL OR fail_cause = '') AND COALESCE(confirm_execute_time, confirm_sent_time, create_time) < ? ORDER BY id");
+		auditSql = dialect.insertIgnoreSql("t_consistency_audit", AUDIT_COLUMNS, new String[] { "consistency_id" });
+		deadLetterSqls = new String[16];
+		for (int v = 0; v < 16; v++) {
+			StringBuilder sql = new StringBuilder("SELECT * FROM t_consistency_dead WHERE id > ?");
+			if ((v & 1) != 0) {
+				sql.append(" AND destination = ?");
+			}
+			if ((v & 2) != 0) {
+				sql.append(" AND dead_time >= ?");
+			}
+			if ((v & 4) != 0) {
+				sql.append(" AND dead_time < ?");
+			}
+			if ((v & 8) != 0) {
+				sql.append(" AND fail_cause LIKE ? ESCAPE '" + LIKE_ESCAPE + "'");
+			}
+			deadLetterSqls[v] = dialect.limit(sql.append(" ORDER BY id").toString());
+		}
 	}
 
 	@Override
 	public ConsistencyInfo getConsistencyByTxId(String txId) {
-		StringBuilder sql = new StringBuilder();
-		sql.append("SELECT * FROM t_consistency AS t WHERE t.tx_id = ?");
-		return jdbcTemplate.queryForObject(sql.toString(), new Object[] { txId }, consistencyRowMapper());
+		return jdbcTemplate.queryForObject(SELECT_BY_TX_ID_SQL, new Object[] { txId }, consistencyRowMapper());
 	}
 
 	@Override
 	public ConsistencyInfo getDetail(long id) {
-		StringBuilder sql = new StringBuilder();
-		sql.append(
-				"SELECT t.*, m.*  FROM t_consistency AS t, t_consistency_message m WHERE t.id = m.consistency_id AND t.id = ?");
-		return jdbcTemplate.queryForObject(sql.toString(), new Object[] { id }, consistencyDetailRowMapper());
+		return jdbcTemplate.queryForObject(detailByIdSql, new Object[] { id }, consistencyDetailRowMapper());
 	}
 
 	@Override
-	public void addConsistency(final ConsistencyInfo cinfo) {
-		final StringBuilder sql = new StringBuilder();
-		sql.append("INSERT INTO t_consistency (");
-		sql.append("	tx_id,");
-		sql.append("	biz_id,");
-		sql.append(" destination,");
-		sql.append("	confirm_level,");
-		sql.append("	confirm_status, ");
-		sql.append("	confirm_destination, ");		
-		sql.append("	retry_interval,");
-		sql.append("	retry_time,");
-		sql.append("	retry_status ");	
-		sql.append(") ");
-		sql.append("VALUES");
-		sql.append("	(?, ?, ?, ?, ?, ?, ?, ?, ?)");
+	public List<ConsistencyInfo> getDetails(List<Long> ids) {
+		if (ids.isEmpty()) {
+			return Collections.emptyList();
+		}
+		return jdbcTemplate.query(detailByIdsSql + inClause(ids.size()), ids.toArray(), consistencyDetailRowMapper());
+	}
 
+	@Override
+	public void addConsistency(final ConsistencyInfo cinfo) {
+		if (idGenerator != null) {
+			addConsistencies(Collections.singletonList(cinfo));
+			return;
+		}
 		KeyHolder keyHolder = new GeneratedKeyHolder();
 		jdbcTemplate.update(new PreparedStatementCreator() {
 			@Override
 			public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
-				int i = 1;
-				PreparedStatement ps = connection.prepareStatement(sql.toString(), Statement.RETURN_GENERATED_KEYS);
-				ps.setString(i++, cinfo.getTxId());
-				ps.setString(i++, cinfo.getBizId());
-				ps.setString(i++, cinfo.getDestination());
-				ps.setInt(i++, cinfo.getConfirmLevel().ordinal());
-				ps.setInt(i++, cinfo.getConfirmStatus().ordinal());
-				ps.setString(i++, cinfo.getConfirmDestination());				
-				ps.setInt(i++, cinfo.getRetryInterval());
-				ps.setTimestamp(i++, new Timestamp(cinfo.getRetryTime().getTime()));
-				ps.setInt(i++, cinfo.getRetryStatus().ordinal());
+				PreparedStatement ps = prepareInsert(connection);
+				setConsistencyValues(ps, cinfo);
 				return ps;
 			}
 		}, keyHolder);
 
 		cinfo.setId(keyHolder.getKey().longValue());
-		StringBuilder sql2 = new StringBuilder();
-		sql2.append("INSERT INTO t_consistency_message (");
-		sql2.append("	consistency_id,");
-		sql2.append("	destination,");
-		sql2.append("	content");
-		sql2.append(") ");
-		sql2.append("VALUES");
-		sql2.append("	(?, ?, ?)");
-		jdbcTemplate.update(sql2.toString(),
-				new Object[] { cinfo.getId(), cinfo.getDestination(), cinfo.getContent() });
+		insertMessages(Collections.singletonList(cinfo));
+	}
+
+	@Override
+	public void addConsistencies(final List<ConsistencyInfo> cinfos) {
+		if (cinfos.isEmpty()) {
+			return;
+		}
+		// 客户端生成主键, 直接批量写入
+		if (idGenerator != null) {
+			for (ConsistencyInfo cinfo : cinfos) {
+				cinfo.setId(idGenerator.nextId());
+			}
+			jdbcTemplate.batchUpdate(insertConsistencySql(), new BatchPreparedStatementSetter() {
+				@Override
+				public void setValues(PreparedStatement ps, int i) throws SQLException {
+					setConsistencyValues(ps, cinfos.get(i));
+				}
+
+				@Override
+				public int getBatchSize() {
+					return cinfos.size();
+				}
+			});
+			insertMessages(cinfos);
+			return;
+		}
+		// 批量写入一致性信息, 通过getGeneratedKeys回填编号
+		int fetched = jdbcTemplate.execute(new ConnectionCallback<Integer>() {
+			@Override
+			public Integer doInConnection(Connection con) throws SQLException, DataAccessException {
+				PreparedStatement ps = null;
+				ResultSet rs = null;
+				try {
+					ps = prepareInsert(con);
+					for (ConsistencyInfo cinfo : cinfos) {
+						setConsistencyValues(ps, cinfo);
+						ps.addBatch();
+					}
+					ps.executeBatch();
+					rs = ps.getGeneratedKeys();
+					int i = 0;
+					while (i < cinfos.size() && rs.next()) {
+						cinfos.get(i++).setId(rs.getLong(1));
+					}
+					return i;
+				} finally {
+					JdbcUtils.closeResultSet(rs);
+					JdbcUtils.closeStatement(ps);
+				}
+			}
+		});
+		// 驱动不支持批量返回主键时, 按事务编号查询
+		if (fetched < cinfos.size()) {
+			logger.debug("~~~ generated keys not returned by batch, fetched={}, expected={} ~~~", fetched, cinfos.size());
+			fillIdByTxId(cinfos);
+		}
+		insertMessages(cinfos);
+	}
+
+	/**
+	 * 一致性信息插入语句
+	 * 
+	 * @return
+	 */
+	protected String insertConsistencySql() {
+		return idGenerator != null ? INSERT_CONSISTENCY_WITH_ID_SQL : INSERT_CONSISTENCY_SQL;
+	}
+
+	private PreparedStatement prepareInsert(Connection con) throws SQLException {
+		String[] keyColumns = dialect.generatedKeyColumns();
+		return keyColumns != null ? con.prepareStatement(insertConsistencySql(), keyColumns)
+				: con.prepareStatement(insertConsistencySql(), Statement.RETURN_GENERATED_KEYS);
+	}
+
+	/**
+	 * 详情查询语句
+	 * 
+	 * @param condition
+	 *            查询条件, 一致性表别名为t
+	 * @return
+	 */
+	protected String detailSql(String condition) {
+		return "SELECT " + CONSISTENCY_COLUMNS + ", m.content, m.codec, m.compressed FROM t_consistency t, t_consistency_message m WHERE t.id = m.consistency_id AND " + condition;
+	}
+
+	/**
+	 * 批量保存消息内容
+	 * 
+	 * @param cinfos
+	 */
+	protected void insertMessages(final List<ConsistencyInfo> cinfos) {
+		jdbcTemplate.batchUpdate(INSERT_MESSAGE_SQL, new BatchPreparedStatementSetter() {
+			@Override
+			public void setValues(PreparedStatement ps, int i) throws SQLException {
+				ConsistencyInfo cinfo = cinfos.get(i);
+				ps.setLong(1, cinfo.getId());
+				ps.setString(2, cinfo.getDestination());
+				ps.setString(3, cinfo.getContent());
+				ps.setString(4, cinfo.getCodec());
+				ps.setBoolean(5, cinfo.isCompressed());
+			}
+
+			@Override
+			public int getBatchSize() {
+				return cinfos.size();
+			}
+		});
+	}
+
+	private void fillIdByTxId(List<ConsistencyInfo> cinfos) {
+		final Map<String, ConsistencyInfo> txIdMap = new HashMap<String, ConsistencyInfo>();
+		for (ConsistencyInfo cinfo : cinfos) {
+			txIdMap.put(cinfo.getTxId(), cinfo);
+		}
+		RowCallbackHandler handler = new RowCallbackHandler() {
+			@Override
+			public void processRow(ResultSet rs) throws SQLException {
+				txIdMap.get(rs.getString("tx_id")).setId(rs.getLong("id"));
+			}
+		};
+		// 分批查询, IN列表不超过数据库限制(Oracle为1000)
+		List<String> txIds = new ArrayList<>(txIdMap.keySet());
+		for (int from = 0; from < txIds.size(); from += IN_CHUNK_SIZE) {
+			List<String> chunk = txIds.subList(from, Math.min(txIds.size(), from + IN_CHUNK_SIZE));
+			jdbcTemplate.query(SELECT_ID_BY_TX_IDS_SQL + inClause(chunk.size()), chunk.toArray(), handler);
+		}
+	}
+
+	/**
+	 * 设置插入参数
+	 * 
+	 * @param ps
+	 * @param cinfo
+	 * @return 下一个参数位置
+	 * @throws SQLException
+	 */
+	protected int setConsistencyValues(PreparedStatement ps, ConsistencyInfo cinfo) throws SQLException {
+		int i = 1;
+		if (idGenerator != null) {
+			ps.setLong(i++, cinfo.getId());
+		}
+		ps.setString(i++, cinfo.getTxId());
+		ps.setString(i++, cinfo.getBizId());
+		ps.setString(i++, cinfo.getDestination());
+		ps.setInt(i++, cinfo.getConfirmLevel().ordinal());
+		ps.setInt(i++, cinfo.getConfirmStatus().ordinal());
+		ps.setString(i++, cinfo.getConfirmDestination());
+		ps.setInt(i++, cinfo.getRetryInterval());
+		ps.setTimestamp(i++, new Timestamp(cinfo.getRetryTime().getTime()));
+		ps.setInt(i++, cinfo.getRetryStatus().ordinal());
+		ps.setString(i++, cinfo.getRetryPolicy());
+		ps.setInt(i++, cinfo.getPriority().ordinal());
+		return i;
 	}
 
 	@Override
 	public List<ConsistencyInfo> queryRetryList(int maxRetry) {
-		String sql = "SELECT id, tx_id FROM t_consistency WHERE retry_status = 1 AND retry_time < ? ORDER BY retry_time LIMIT ?";
-		List<ConsistencyInfo> list = jdbcTemplate.query(sql, new Object[] { new Date(), maxRetry },
+		List<ConsistencyInfo> list = jdbcTemplate.query(retryListSql, new Object[] { new Date(), maxRetry },
 				new RowMapper<ConsistencyInfo>(){
 					@Override
 					public ConsistencyInfo mapRow(ResultSet rs, int rowNum) throws SQLException {
@@ -114,26 +451,526 @@ public class ConsistencyDaoImpl implements ConsistencyDao {
 		return list;
 	}
 
+	@Override
+	public List<ConsistencyInfo> queryRetryDetails(int maxRetry, Date dueTime) {
+		return queryRetryDetails(maxRetry, dueTime, null, null);
+	}
+
+	@Override
+	public List<ConsistencyInfo> queryRetryDetails(int maxRetry, Date dueTime, String destination, Priority priority) {
+		return jdbcTemplate.query(retryDetailSqls[retryVariant(destination, priority)], retryArgs(destination, priority, dueTime, maxRetry), consistencyDetailRowMapper());
+	}
+
+	@Override
+	public List<String> queryRetryDestinations(Date dueTime, Priority priority) {
+		return jdbcTemplate.queryForList(retryDestinationSqls[retryVariant(null, priority)], retryArgs(null, priority, dueTime), String.class);
+	}
+
+	@Override
+	public List<ConsistencyInfo> claimRetryDetails(int maxRetry, Date dueTime, String claimToken, int leaseSeconds) {
+		return claimRetryDetails(maxRetry, dueTime, null, null, claimToken, leaseSeconds);
+	}
+
+	@Override
+	public List<ConsistencyInfo> claimRetryDetails(final int maxRetry, final Date dueTime, final String destination,
+			final Priority priority, final String claimToken, int leaseSeconds) {
+		final Date now = new Date();
+		final Date expire = new Date(now.getTime() + leaseSeconds * 1000L);
+		final int variant = retryVariant(destination, priority);
+		int claimed;
+		if (skipLocked) {
+			// 锁定到期消息, 跳过其他节点正在认领的行
+			claimed = transactionTemplate.execute(new TransactionCallback<Integer>() {
+				@Override
+				public Integer doInTransaction(TransactionStatus status) {
+					List<Long> ids = jdbcTemplate.queryForList(claimSelectSqls[variant],
+							retryArgs(destination, priority, dueTime, now, maxRetry), Long.class);
+					if (ids.isEmpty()) {
+						return 0;
+					}
+					List<Object> args = new ArrayList<>(ids.size() + 2);
+					args.add(claimToken);
+					args.add(expire);
+					args.addAll(ids);
+					return jdbcTemplate.update(CLAIM_BY_IDS_SQL + inClause(ids.size()), args.toArray());
+				}
+			});
+		} else {
+			List<Object> args = new ArrayList<>(6);
+			args.add(claimToken);
+			args.add(expire);
+			args.addAll(Arrays.asList(retryArgs(destination, priority, dueTime, now, maxRetry)));
+			claimed = jdbcTemplate.update(claimUpdateSqls[variant], args.toArray());
+		}
+		if (claimed == 0) {
+			return Collections.emptyList();
+		}
+		return jdbcTemplate.query(claimedDetailSql, new Object[] { claimToken }, consistencyDetailRowMapper());
+	}
+
+	@Override
+	public List<ConsistencyInfo> claimDetails(List<Long> ids, Date dueTime, String claimToken, int leaseSeconds) {
+		if (ids.isEmpty()) {
+			return Collections.emptyList();
+		}
+		Date now = new Date();
+		List<Object> args = new ArrayList<>(ids.size() + 4);
+		args.add(claimToken);
+		args.add(new Date(now.getTime() + leaseSeconds * 1000L));
+		args.add(dueTime);
+		args.add(now);
+		args.addAll(ids);
+		if (jdbcTemplate.update(CLAIM_DUE_BY_IDS_SQL + inClause(ids.size()), args.toArray()) == 0) {
+			return Collections.emptyList();
+		}
+		return jdbcTemplate.query(claimedDetailSql, new Object[] { claimToken }, consistencyDetailRowMapper());
+	}
+
+	@Override
+	public int renewClaims(List<String> claimTokens, int leaseSeconds) {
+		if (claimTokens.isEmpty()) {
+			return 0;
+		}
+		List<Object> args = new ArrayList<>(claimTokens.size() + 1);
+		args.add(new Date(System.currentTimeMillis() + leaseSeconds * 1000L));
+		args.addAll(claimTokens);
+		return jdbcTemplate.update(RENEW_CLAIMS_SQL + inClause(claimTokens.size()), args.toArray());
+	}
+
+	/**
+	 * 到期重试条件
+	 * <p>
+	 * 按目标地址查询时使用(retry_status, destination, retry_time)索引, 按优先级查询时使用(retry_status, priority, retry_time)索引.
+	 * 设置重试窗口时加上创建时间条件, 按创建时间分区的表只扫描窗口内的分区
+	 * 
+	 * @param alias
+	 * @param byDestination
+	 *            是否按目标地址
+	 * @param byPriority
+	 *            是否按优先级
+	 * @return
+	 */
+	private String retryCondition(String alias, boolean byDestination, boolean byPriority) {
+		StringBuilder condition = new StringBuilder();
+		if (retryWindowHours > 0) {
+			condition.append(alias).append("create_time > ? AND ");
+		}
+		condition.append(alias).append("retry_status = 1");
+		if (byPriority) {
+			condition.append(" AND ").append(alias).append("priority = ?");
+		}
+		if (byDestination) {
+			condition.append(" AND ").append(alias).append("destination = ?");
+		}
+		condition.append(" AND ").append(alias).append("retry_time < ?");
+		return condition.toString();
+	}
+
+	/**
+	 * 有到期消息的目标地址, 按目标地址分组取最早重试时间.
+	 * 只按重试状态过滤时可使用(retry_status, destination, retry_time)索引松散扫描, 每个目标地址只读一条索引记录
+	 * 
+	 * @param byPriority
+	 * @return
+	 */
+	private String retryDestinationSql(boolean byPriority) {
+		StringBuilder sql = new StringBuilder("SELECT destination FROM t_consistency WHERE ");
+		if (retryWindowHours > 0) {
+			sql.append("create_time > ? AND ");
+		}
+		sql.append("retry_status = 1");
+		if (byPriority) {
+			sql.append(" AND priority = ?");
+		}
+		return sql.append(" GROUP BY destination HAVING MIN(retry_time) < ?").toString();
+	}
+
+	private static int retryVariant(String destination, Priority priority) {
+		return (priority != null ? 1 : 0) | (destination != null ? 2 : 0);
+	}
+
+	private Object[] retryArgs(String destination, Priority priority, Object... args) {
+		List<Object> result = new ArrayList<>(args.length + 3);
+		if (retryWindowHours > 0) {
+			result.add(new Date(System.currentTimeMillis() - retryWindowHours * 3600000L));
+		}
+		if (priority != null) {
+			result.add(priority.ordinal());
+		}
+		if (destination != null) {
+			result.add(destination);
+		}
+		result.addAll(Arrays.asList(args));
+		return result.toArray();
+	}
+
 	@Override
 	public void updateConsistency(ConsistencyInfo cinfo) {
 		logger.info("~~~ updateConsistency(message={})", cinfo);
-		StringBuilder sql = new StringBuilder();
-		sql.append("UPDATE t_consistency ");
-		sql.append(
-				"SET first_sent_time = ?, retry_time = ?, retry_count = ?, retry_status = ?, confirm_status = ?,  confirm_sent_time = ?, confirm_execute_time = ?, execute_host = ? , fail_cause = ? ");
-		sql.append("WHERE ");
-		sql.append("id = ?");
-		jdbcTemplate.update(sql.toString(),
-				new Object[] { cinfo.getFirstSentTime(), cinfo.getRetryTime(), cinfo.getRetryCount(),
-						cinfo.getRetryStatus().ordinal(), cinfo.getConfirmStatus().ordinal(),
-						cinfo.getConfirmSentTime(), cinfo.getConfirmExecuteTime(), cinfo.getExecuteHost(),
-						cinfo.getFailCause(), cinfo.getId() },
-				new int[] { Types.TIMESTAMP, Types.TIMESTAMP, Types.INTEGER, Types.TINYINT, Types.TINYINT,
-						Types.TIMESTAMP, Types.TIMESTAMP, Types.VARCHAR, Types.VARCHAR, Types.BIGINT });
+		jdbcTemplate.update(updateConsistencySql, updateArgs(cinfo), UPDATE_CONSISTENCY_TYPES);
 		logger.info("~~~ updateConsistency() end");
 	}
 
-	private RowMapper<ConsistencyInfo> consistencyRowMapper() {
+	@Override
+	public void updateConsistencies(List<ConsistencyInfo> cinfos) {
+		if (cinfos.isEmpty()) {
+			return;
+		}
+		logger.info("~~~ updateConsistencies(count={})", cinfos.size());
+		List<Object[]> batchArgs = new ArrayList<>(cinfos.size());
+		for (ConsistencyInfo cinfo : cinfos) {
+			batchArgs.add(updateArgs(cinfo));
+		}
+		jdbcTemplate.batchUpdate(updateConsistencySql, batchArgs, UPDATE_CONSISTENCY_TYPES);
+		logger.info("~~~ updateConsistencies() end");
+	}
+
+	@Override
+	public void delayRetries(List<ConsistencyInfo> cinfos) {
+		if (cinfos.isEmpty()) {
+			return;
+		}
+		List<Object[]> batchArgs = new ArrayList<>(cinfos.size());
+		for (ConsistencyInfo cinfo : cinfos) {
+			batchArgs.add(new Object[] { cinfo.getRetryTime(), cinfo.getId() });
+		}
+		jdbcTemplate.batchUpdate(delayRetriesSql, batchArgs, DELAY_RETRIES_TYPES);
+	}
+
+	@Override
+	public List<Long> queryFinishedIds(ConfirmLevel confirmLevel, Date before, long afterId, int limit) {
+		return jdbcTemplate.queryForList(finishedSql, new Object[] { afterId, confirmLevel.ordinal(), before, limit },
+				Long.class);
+	}
+
+	@Override
+	public int archiveConsistencies(final List<Long> ids) {
+		if (ids.isEmpty()) {
+			return 0;
+		}
+		return transactionTemplate.execute(new TransactionCallback<Integer>() {
+			@Override
+			public Integer doInTransaction(TransactionStatus status) {
+				String in = inClause(ids.size());
+				Object[] args = ids.toArray();
+				// 先复制再删除, 只删除已复制的行
+				int count = jdbcTemplate.update(ARCHIVE_SQL + in, args);
+				List<Long> archived = count == ids.size() ? ids : jdbcTemplate.queryForList(SELECT_ARCHIVED_SQL + in, args, Long.class);
+				if (archived.isEmpty()) {
+					return 0;
+				}
+				archiveMessages(archived);
+				deleteRows(archived);
+				return archived.size();
+			}
+		});
+	}
+
+	@Override
+	public int deleteConsistencies(final List<Long> ids) {
+		if (ids.isEmpty()) {
+			return 0;
+		}
+		return transactionTemplate.execute(new TransactionCallback<Integer>() {
+			@Override
+			public Integer doInTransaction(TransactionStatus status) {
+				return deleteRows(ids);
+			}
+		});
+	}
+
+	@Override
+	public int removeConsistencies(final List<Long> ids) {
+		if (ids.isEmpty()) {
+			return 0;
+		}
+		return transactionTemplate.execute(new TransactionCallback<Integer>() {
+			@Override
+			public Integer doInTransaction(TransactionStatus status) {
+				return removeRows(ids);
+			}
+		});
+	}
+
+	@Override
+	public void moveToDead(final List<ConsistencyInfo> cinfos) {
+		if (cinfos.isEmpty()) {
+			return;
+		}
+		final List<Long> ids = new ArrayList<>(cinfos.size());
+		for (ConsistencyInfo cinfo : cinfos) {
+			ids.add(cinfo.getId());
+		}
+		final Timestamp deadTime = new Timestamp(System.currentTimeMillis());
+		transactionTemplate.execute(new TransactionCallback<Integer>() {
+			@Override
+			public Integer doInTransaction(TransactionStatus status) {
+				jdbcTemplate.batchUpdate(INSERT_DEAD_SQL, new BatchPreparedStatementSetter() {
+					@Override
+					public void setValues(PreparedStatement ps, int i) throws SQLException {
+						ConsistencyInfo cinfo = cinfos.get(i);
+						int j = 1;
+						ps.setLong(j++, cinfo.getId());
+						ps.setString(j++, cinfo.getTxId());
+						ps.setString(j++, cinfo.getBizId());
+						ps.setString(j++, cinfo.getDestination());
+						ps.setInt(j++, cinfo.getConfirmLevel().ordinal());
+						ps.setString(j++, cinfo.getConfirmDestination());
+						ps.setInt(j++, cinfo.getRetryInterval());
+						ps.setInt(j++, cinfo.getRetryCount());
+						ps.setString(j++, cinfo.getRetryPolicy());
+						ps.setInt(j++, cinfo.getPriority().ordinal());
+						ps.setTimestamp(j++, cinfo.getFirstSentTime() != null ? new Timestamp(cinfo.getFirstSentTime().getTime()) : null);
+						ps.setString(j++, cinfo.getFailCause());
+						ps.setString(j++, cinfo.getContent());
+						ps.setString(j++, cinfo.getCodec());
+						ps.setBoolean(j++, cinfo.isCompressed());
+						ps.setTimestamp(j++, cinfo.getCreateTime() != null ? new Timestamp(cinfo.getCreateTime().getTime()) : deadTime);
+						ps.setTimestamp(j++, deadTime);
+					}
+
+					@Override
+					public int getBatchSize() {
+						return cinfos.size();
+					}
+				});
+				return removeRows(ids);
+			}
+		});
+	}
+
+	@Override
+	public List<ConsistencyInfo> queryDeadLetters(DeadLetterQuery query, long afterId, int limit) {
+		int variant = 0;
+		List<Object> args = new ArrayList<>(6);
+		args.add(afterId);
+		if (query.getDestination() != null) {
+			variant |= 1;
+			args.add(query.getDestination());
+		}
+		if (query.getFromTime() != null) {
+			variant |= 2;
+			args.add(query.getFromTime());
+		}
+		if (query.getToTime() != null) {
+			variant |= 4;
+			args.add(query.getToTime());
+		}
+		if (query.getFailCause() != null) {
+			variant |= 8;
+			args.add(escapeLike(query.getFailCause()) + "%");
+		}
+		args.add(limit);
+		return jdbcTemplate.query(deadLetterSqls[variant], args.toArray(), new RowMapper<ConsistencyInfo>() {
+			@Override
+			public ConsistencyInfo mapRow(ResultSet rs, int rowNum) throws SQLException {
+				ConsistencyInfo cinfo = new ConsistencyInfo();
+				cinfo.setId(rs.getLong("id"));
+				cinfo.setTxId(rs.getString("tx_id"));
+				cinfo.setBizId(rs.getString("biz_id"));
+				cinfo.setDestination(rs.getString("destination"));
+				cinfo.setConfirmLevel(ConfirmLevel.values()[rs.getInt("confirm_level")]);
+				cinfo.setConfirmDestination(rs.getString("confirm_destination"));
+				cinfo.setRetryInterval(rs.getInt("retry_interval"));
+				cinfo.setRetryCount(rs.getInt("retry_count"));
+				cinfo.setRetryPolicy(rs.getString("retry_policy"));
+				cinfo.setPriority(Priority.values()[rs.getInt("priority")]);
+				cinfo.setFirstSentTime(rs.getTimestamp("first_sent_time"));
+				cinfo.setFailCause(rs.getString("fail_cause"));
+				cinfo.setContent(rs.getString("content"));
+				cinfo.setCodec(rs.getString("codec"));
+				cinfo.setCompressed(rs.getBoolean("compressed"));
+				cinfo.setCreateTime(rs.getTimestamp("create_time"));
+				return cinfo;
+			}
+		});
+	}
+
+	@Override
+	public void requeueDeadLetters(final List<ConsistencyInfo> cinfos) {
+		if (cinfos.isEmpty()) {
+			return;
+		}
+		final List<Long> deadIds = new ArrayList<>(cinfos.size());
+		for (ConsistencyInfo cinfo : cinfos) {
+			deadIds.add(cinfo.getId());
+		}
+		transactionTemplate.execute(new TransactionCallback<Integer>() {
+			@Override
+			public Integer doInTransaction(TransactionStatus status) {
+				addConsistencies(cinfos);
+				return jdbcTemplate.update(DELETE_DEAD_SQL + inClause(deadIds.size()), deadIds.toArray());
+			}
+		});
+	}
+
+	@Override
+	public void addAudits(final List<ConsistencyInfo> cinfos) {
+		if (cinfos.isEmpty()) {
+			return;
+		}
+		jdbcTemplate.batchUpdate(auditSql, new BatchPreparedStatementSetter() {
+			@Override
+			public void setValues(PreparedStatement ps, int i) throws SQLException {
+				ConsistencyInfo cinfo = cinfos.get(i);
+				ps.setLong(1, cinfo.getId());
+				ps.setString(2, cinfo.getTxId());
+				ps.setString(3, cinfo.getBizId());
+				ps.setString(4, cinfo.getDestination());
+				ps.setInt(5, cinfo.getRetryCount());
+				ps.setTimestamp(6, cinfo.getConfirmSentTime() != null ? new Timestamp(cinfo.getConfirmSentTime().getTime()) : null);
+			}
+
+			@Override
+			public int getBatchSize() {
+				return cinfos.size();
+			}
+		});
+	}
+
+	/**
+	 * 将消息内容移入历史表
+	 * 
+	 * @param ids
+	 *            一致性编号
+	 */
+	protected void archiveMessages(List<Long> ids) {
+		jdbcTemplate.update(ARCHIVE_MESSAGE_SQL + inClause(ids.size()), ids.toArray());
+	}
+
+	/**
+	 * 删除消息内容
+	 * 
+	 * @param ids
+	 *            一致性编号
+	 */
+	protected void deleteMessages(List<Long> ids) {
+		jdbcTemplate.update(DELETE_MESSAGE_SQL + inClause(ids.size()), ids.toArray());
+	}
+
+	private int deleteRows(List<Long> ids) {
+		int count = jdbcTemplate.update(DELETE_FINISHED_SQL + inClause(ids.size()), ids.toArray());
+		if (count > 0) {
+			// 消息内容的删除不需要再判断状态, 对应一致性信息未删除时其内容一并保留
+			deleteMessages(count == ids.size() ? ids : deletedIds(ids));
+		}
+		return count;
+	}
+
+	/**
+	 * 已从一致性表删除的编号
+	 */
+	private List<Long> deletedIds(List<Long> ids) {
+		List<Long> existing = jdbcTemplate.queryForList(SELECT_IDS_SQL + inClause(ids.size()), ids.toArray(), Long.class);
+		List<Long> deleted = new ArrayList<>(ids);
+		deleted.removeAll(existing);
+		return deleted;
+	}
+
+	private int removeRows(List<Long> ids) {
+		int count = jdbcTemplate.update(DELETE_CONSISTENCY_SQL + inClause(ids.size()), ids.toArray());
+		deleteMessages(ids);
+		return count;
+	}
+
+	/**
+	 * 转义LIKE通配符, 使前缀按字面匹配
+	 * 
+	 * @param value
+	 * @return
+	 */
+	private static String escapeLike(String value) {
+		StringBuilder escaped = new StringBuilder(value.length() + 8);
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '%' || c == '_' || c == LIKE_ESCAPE) {
+				escaped.append(LIKE_ESCAPE);
+			}
+			escaped.append(c);
+		}
+		return escaped.toString();
+	}
+
+	/**
+	 * IN条件的参数占位, 常用长度缓存后复用
+	 * 
+	 * @param size
+	 * @return
+	 */
+	private static String inClause(int size) {
+		String clause = size <= MAX_CACHED_IN_SIZE ? IN_CLAUSES[size] : null;
+		if (clause == null) {
+			StringBuilder sql = new StringBuilder(size * 3 + 2).append("(");
+			for (int i = 0; i < size; i++) {
+				sql.append(i == 0 ? "?" : ", ?");
+			}
+			clause = sql.append(")").toString();
+			if (size <= MAX_CACHED_IN_SIZE) {
+				IN_CLAUSES[size] = clause;
+			}
+		}
+		return clause;
+	}
+
+	private Object[] updateArgs(ConsistencyInfo cinfo) {
+		return new Object[] { cinfo.getFirstSentTime(), cinfo.getRetryTime(), cinfo.getRetryCount(),
+				cinfo.getRetryStatus().ordinal(), cinfo.getConfirmStatus().ordinal(), cinfo.getConfirmSentTime(),
+				cinfo.getConfirmExecuteTime(), cinfo.getExecuteHost(), cinfo.getFailCause(), cinfo.getId() };
+	}
+
+	/**
+	 * 设置是否按行认领补偿
+	 * <p>
+	 * 开启后更新一致性信息和推迟重试时释放认领, 需要:
+	 *
+	 * <pre>
+	 * ALTER TABLE t_consistency ADD COLUMN claim_token VARCHAR(32);
+	 * ALTER TABLE t_consistency ADD COLUMN claim_expire DATETIME;
+	 * CREATE INDEX idx_consistency_claim ON t_consistency (claim_token);
+	 * </pre>
+	 * 
+	 * @param claimEnabled
+	 *            the claimEnabled to set
+	 */
+	public void setClaimEnabled(boolean claimEnabled) {
+		this.claimEnabled = claimEnabled;
+		prepareStatements();
+	}
+
+	/**
+	 * @param skipLocked
+	 *            the skipLocked to set
+	 */
+	public void setSkipLocked(boolean skipLocked) {
+		this.skipLocked = skipLocked;
+	}
+
+	/**
+	 * @param retryWindowHours
+	 *            重试窗口(小时), 需大于重试策略的最大重试期限
+	 */
+	public void setRetryWindowHours(int retryWindowHours) {
+		this.retryWindowHours = retryWindowHours;
+		prepareStatements();
+	}
+
+	/**
+	 * @param dialect
+	 *            the dialect to set
+	 */
+	public void setDialect(Dialect dialect) {
+		this.dialect = dialect;
+		prepareStatements();
+	}
+
+	/**
+	 * @return the dialect
+	 */
+	public Dialect getDialect() {
+		return dialect;
+	}
+
+	protected RowMapper<ConsistencyInfo> consistencyRowMapper() {
 		return new RowMapper<ConsistencyInfo>() {
 			@Override
 			public ConsistencyInfo mapRow(ResultSet rs, int rowNum) throws SQLException {
@@ -147,6 +984,8 @@ public class ConsistencyDaoImpl implements ConsistencyDao {
 				consistency.setRetryTime(rs.getTimestamp("retry_time"));
 				consistency.setRetryCount(rs.getInt("retry_count"));
 				consistency.setRetryStatus(RetryStatus.values()[rs.getInt("retry_status")]);
+				consistency.setRetryPolicy(rs.getString("retry_policy"));
+				consistency.setPriority(Priority.values()[rs.getInt("priority")]);
 				consistency.setConfirmLevel(ConfirmLevel.values()[rs.getInt("confirm_level")]);
 				consistency.setConfirmStatus(ConfirmStatus.values()[rs.getInt("confirm_status")]);
 				consistency.setConfirmDestination(rs.getString("confirm_destination"));
@@ -160,13 +999,15 @@ public class ConsistencyDaoImpl implements ConsistencyDao {
 		};
 	}
 
-	private RowMapper<ConsistencyInfo> consistencyDetailRowMapper() {
+	protected RowMapper<ConsistencyInfo> consistencyDetailRowMapper() {
 		return new RowMapper<ConsistencyInfo>() {
 			@Override
 			public ConsistencyInfo mapRow(ResultSet rs, int rowNum) throws SQLException {
 				ConsistencyInfo consistency = consistencyRowMapper().mapRow(rs, rowNum);
 				consistency.setDestination(rs.getString("destination"));
 				consistency.setContent(rs.getString("content"));
+				consistency.setCodec(rs.getString("codec"));
+				consistency.setCompressed(rs.getBoolean("compressed"));
 				return consistency;
 			}
 		};
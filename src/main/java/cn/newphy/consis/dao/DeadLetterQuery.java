@@ -0,0 +1,84 @@
+package cn.newphy.consis.dao;
+
+import java.util.Date;
+
+/**
+ * 死信查询条件, 为空的条件不限
+ *
+ * @author Newphy
+ */
+public class DeadLetterQuery {
+
+	// 目标地址
+	private String destination;
+
+	// 进入死信的起始时间(含)
+	private Date fromTime;
+
+	// 进入死信的结束时间(不含)
+	private Date toTime;
+
+	// 失败原因前缀
+	private String failCause;
+
+	/**
+	 * @return the destination
+	 */
+	public String getDestination() {
+		return destination;
+	}
+
+	/**
+	 * @param destination
+	 *            the destination to set
+	 */
+	public void setDestination(String destination) {
+		this.destination = destination;
+	}
+
+	/**
+	 * @return the fromTime
+	 */
+	public Date getFromTime() {
+		return fromTime;
+	}
+
+	/**
+	 * @param fromTime
+	 *            the fromTime to set
+	 */
+	public void setFromTime(Date fromTime) {
+		this.fromTime = fromTime;
+	}
+
+	/**
+	 * @return the toTime
+	 */
+	public Date getToTime() {
+		return toTime;
+	}
+
+	/**
+	 * @param toTime
+	 *            the toTime to set
+	 */
+	public void setToTime(Date toTime) {
+		this.toTime = toTime;
+	}
+
+	/**
+	 * @return the failCause
+	 */
+	public String getFailCause() {
+		return failCause;
+	}
+
+	/**
+	 * @param failCause
+	 *            the failCause to set
+	 */
+	public void setFailCause(String failCause) {
+		this.failCause = failCause;
+	}
+
+}
@@ -0,0 +1,81 @@
+package cn.newphy.consis.dao;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import cn.newphy.consis.ConsistencyInfo;
+import cn.newphy.consis.dialect.Dialect;
+import cn.newphy.consis.support.id.IdGenerator;
+
+/**
+ * 单表存储的一致性DAO
+ * <p>
+ * 消息内容直接保存在t_consistency.content列中, 不再写入t_consistency_message,
+ * 每条消息只需一次INSERT, 补偿读取详情为单行主键查询.
+ * <p>
+ * 需要的表结构变更:
+ *
+ * <pre>
+ * ALTER TABLE t_consistency ADD COLUMN content MEDIUMTEXT;
+ * ALTER TABLE t_consistency ADD COLUMN codec VARCHAR(16) DEFAULT NULL;
+ * ALTER TABLE t_consistency ADD COLUMN compressed TINYINT NOT NULL DEFAULT 0;
+ * </pre>
+ */
+public class InlineConsistencyDaoImpl extends ConsistencyDaoImpl {
+
+	private static final String INSERT_CONSISTENCY_SQL = "INSERT INTO t_consistency (tx_id, biz_id, destination, confirm_level, confirm_status, confirm_destination, retry_interval, retry_time, retry_status, retry_policy, priority, content, codec, compressed) "
+			+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	private static final String INSERT_CONSISTENCY_WITH_ID_SQL = "INSERT INTO t_consistency (id, tx_id, biz_id, destination, confirm_level, confirm_status, confirm_destination, retry_interval, retry_time, retry_status, retry_policy, priority, content, codec, compressed) "
+			+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	public InlineConsistencyDaoImpl(DataSource dataSource) {
+		super(dataSource);
+	}
+
+	public InlineConsistencyDaoImpl(DataSource dataSource, IdGenerator idGenerator) {
+		super(dataSource, idGenerator);
+	}
+
+	public InlineConsistencyDaoImpl(DataSource dataSource, IdGenerator idGenerator, Dialect dialect) {
+		super(dataSource, idGenerator, dialect);
+	}
+
+	@Override
+	protected String insertConsistencySql() {
+		return idGenerator != null ? INSERT_CONSISTENCY_WITH_ID_SQL : INSERT_CONSISTENCY_SQL;
+	}
+
+	@Override
+	protected int setConsistencyValues(PreparedStatement ps, ConsistencyInfo cinfo) throws SQLException {
+		int i = super.setConsistencyValues(ps, cinfo);
+		ps.setString(i++, cinfo.getContent());
+		ps.setString(i++, cinfo.getCodec());
+		ps.setBoolean(i++, cinfo.isCompressed());
+		return i;
+	}
+
+	@Override
+	protected String detailSql(String condition) {
+		return "SELECT t.* FROM t_consistency t WHERE " + condition;
+	}
+
+	@Override
+	protected void insertMessages(List<ConsistencyInfo> cinfos) {
+		// 内容已随一致性信息写入
+	}
+
+	@Override
+	protected void archiveMessages(List<Long> ids) {
+		// 内容随一致性信息移入历史表
+	}
+
+	@Override
+	protected void deleteMessages(List<Long> ids) {
+		// 内容随一致性信息删除
+	}
+
+}
@@ -0,0 +1,147 @@
+package cn.newphy.consis.deadletter;
+
+import java.util.Date;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cn.newphy.consis.ConfirmStatus;
+import cn.newphy.consis.ConsistencyInfo;
+import cn.newphy.consis.Priority;
+import cn.newphy.consis.RetryStatus;
+import cn.newphy.consis.dao.ConsistencyDao;
+import cn.newphy.consis.dao.DeadLetterQuery;
+import cn.newphy.consis.support.limit.TokenBucket;
+
+/**
+ * 死信重放
+ * <p>
+ * 按条件分批将死信重新写入一致性表, 由补偿任务发送:
+ * <ul>
+ * <li>按主键分页, 不使用OFFSET, 每批一个短事务</li>
+ * <li>按速率限制写入, 重放大量死信时不挤占正常消息</li>
+ * <li>重放消息的重试次数和首次发送时间重新计算, 缺省使用低优先级</li>
+ * </ul>
+ *
+ * @author Newphy
+ */
+public class DeadLetterReplayer {
+	private Logger logger = LoggerFactory.getLogger(DeadLetterReplayer.class);
+
+	private final ConsistencyDao consistencyDao;
+
+	// 每批条数
+	private int batchSize = 200;
+
+	// 每秒重放条数
+	private double rate = 500;
+
+	// 重放消息的优先级, 为空时保持原优先级
+	private Priority replayPriority = Priority.LOW;
+
+	private volatile boolean stopped = false;
+
+	public DeadLetterReplayer(ConsistencyDao consistencyDao) {
+		this.consistencyDao = consistencyDao;
+	}
+
+	/**
+	 * 重放符合条件的死信, 在调用线程中执行直到全部重放或被停止
+	 *
+	 * @param query
+	 * @return 重放条数
+	 */
+	public int replay(DeadLetterQuery query) {
+		logger.info("~~~ 开始重放死信, destination={}, fromTime={}, toTime={}, failCause={} ~~~", query.getDestination(),
+				query.getFromTime(), query.getToTime(), query.getFailCause());
+		stopped = false;
+		TokenBucket limiter = new TokenBucket(rate);
+		// 令牌桶容量为一秒的令牌数, 每批不超过该数量
+		int limit = (int) Math.max(1, Math.min(batchSize, rate));
+		long afterId = 0;
+		int total = 0;
+		while (!stopped) {
+			List<ConsistencyInfo> cinfos = consistencyDao.queryDeadLetters(query, afterId, limit);
+			if (cinfos.isEmpty()) {
+				break;
+			}
+			afterId = cinfos.get(cinfos.size() - 1).getId();
+			if (!acquire(limiter, cinfos.size())) {
+				break;
+			}
+			Date now = new Date();
+			for (ConsistencyInfo cinfo : cinfos) {
+				reset(cinfo, now);
+			}
+			consistencyDao.requeueDeadLetters(cinfos);
+			total += cinfos.size();
+			logger.debug("~~~ 重放死信, count={}, total={} ~~~", cinfos.size(), total);
+			if (cinfos.size() < limit) {
+				break;
+			}
+		}
+		logger.info("~~~ 结束重放死信, total={} ~~~", total);
+		return total;
+	}
+
+	/**
+	 * 停止正在执行的重放, 当前批次完成后退出
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	private boolean acquire(TokenBucket limiter, int permits) {
+		while (!limiter.tryAcquire(permits)) {
+			long wait = limiter.getRetryAfter(permits) - System.currentTimeMillis();
+			if (stopped) {
+				return false;
+			}
+			try {
+				Thread.sleep(Math.max(1, wait));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void reset(ConsistencyInfo cinfo, Date now) {
+		cinfo.setFirstSentTime(now);
+		cinfo.setRetryCount(0);
+		cinfo.setRetryTime(now);
+		cinfo.setRetryStatus(RetryStatus.YES);
+		cinfo.setConfirmStatus(ConfirmStatus.INTIAL);
+		cinfo.setFailCause(null);
+		if (replayPriority != null) {
+			cinfo.setPriority(replayPriority);
+		}
+	}
+
+	/**
+	 * @param batchSize
+	 *            the batchSize to set
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @param rate
+	 *            每秒重放条数
+	 */
+	public void setRate(double rate) {
+		this.rate = rate;
+	}
+
+	/**
+	 * @param replayPriority
+	 *            the replayPriority to set
+	 */
+	public void setReplayPriority(Priority replayPriority) {
+		this.replayPriority = replayPriority;
+	}
+
+}
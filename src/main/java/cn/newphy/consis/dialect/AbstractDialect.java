@@ -0,0 +1,122 @@
+package cn.newphy.consis.dialect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.util.StringUtils;
+
+/**
+ * 方言基类, 使用标准SQL写法
+ *
+ * @author Newphy
+ */
+public abstract class AbstractDialect implements Dialect {
+
+	@Override
+	public String limit(String sql) {
+		return sql + " LIMIT ?";
+	}
+
+	@Override
+	public String claimSelectSql(String table, String condition, String orderBy) {
+		return limit("SELECT id FROM " + table + " WHERE " + condition + " ORDER BY " + orderBy) + " FOR UPDATE SKIP LOCKED";
+	}
+
+	@Override
+	public String claimUpdateSql(String table, String setClause, String condition, String orderBy) {
+		return "UPDATE " + table + " SET " + setClause + " WHERE id IN ("
+				+ limit("SELECT id FROM " + table + " WHERE " + condition + " ORDER BY " + orderBy) + ")";
+	}
+
+	/**
+	 * 使用MERGE, 只在不存在时插入
+	 */
+	@Override
+	public String insertIgnoreSql(String table, String[] columns, String[] keyColumns) {
+		StringBuilder source = new StringBuilder("SELECT ");
+		for (int i = 0; i < columns.length; i++) {
+			source.append(i == 0 ? "" : ", ").append("? ").append(columns[i]);
+		}
+		source.append(dual());
+		StringBuilder on = new StringBuilder();
+		for (int i = 0; i < keyColumns.length; i++) {
+			on.append(i == 0 ? "" : " AND ").append("d.").append(keyColumns[i]).append(" = s.").append(keyColumns[i]);
+		}
+		StringBuilder values = new StringBuilder();
+		for (int i = 0; i < columns.length; i++) {
+			values.append(i == 0 ? "" : ", ").append("s.").append(columns[i]);
+		}
+		return "MERGE INTO " + table + " d USING (" + source + ") s ON (" + on + ") WHEN NOT MATCHED THEN INSERT ("
+				+ StringUtils.arrayToDelimitedString(columns, ", ") + ") VALUES (" + values + ")";
+	}
+
+	@Override
+	public String[] generatedKeyColumns() {
+		return null;
+	}
+
+	@Override
+	public List<String> recommendedIndexes() {
+		return recommendedIndexes(false);
+	}
+
+	/**
+	 * 推荐的一致性表索引
+	 * <p>
+	 * 按create_time分区时唯一索引必须包含分区键(MySQL拒绝不含分区键的唯一索引), 而(tx_id, create_time)不能保证tx_id唯一,
+	 * 因此tx_id上改建普通索引, 唯一性由事务编号的生成保证
+	 * 
+	 * @param partitioned
+	 *            一致性表是否按create_time分区
+	 * @return 建索引语句
+	 */
+	public List<String> recommendedIndexes(boolean partitioned) {
+		List<String> indexes = new ArrayList<>();
+		indexes.add(createRetryIndex("idx_consistency_retry", "retry_time", 1));
+		indexes.add(createRetryIndex("idx_consistency_destination_retry", "destination, retry_time", 1));
+		indexes.add(createRetryIndex("idx_consistency_priority_retry", "priority, retry_time", 1));
+		indexes.add(createRetryIndex("idx_consistency_finished", "confirm_level, id", 0));
+		indexes.add(createIndex("idx_consistency_claim", "t_consistency", "claim_token", false));
+		indexes.add(partitioned ? createIndex("idx_consistency_tx_id", "t_consistency", "tx_id", false)
+				: createIndex("uk_consistency_tx_id", "t_consistency", "tx_id", true));
+		indexes.add(createIndex("idx_consistency_message_cid", "t_consistency_message", "consistency_id", false));
+		return indexes;
+	}
+
+	/**
+	 * 一致性表上按重试状态查询的索引, 缺省以retry_status为首列
+	 * 
+	 * @param name
+	 * @param columns
+	 *            retry_status之后的索引列
+	 * @param retryStatus
+	 *            查询的重试状态
+	 * @return
+	 */
+	protected String createRetryIndex(String name, String columns, int retryStatus) {
+		return createIndex(name, "t_consistency", "retry_status, " + columns, false);
+	}
+
+	/**
+	 * 建索引语句
+	 * 
+	 * @param name
+	 * @param table
+	 * @param columns
+	 * @param unique
+	 * @return
+	 */
+	protected String createIndex(String name, String table, String columns, boolean unique) {
+		return "CREATE " + (unique ? "UNIQUE " : "") + "INDEX " + name + " ON " + table + " (" + columns + ")";
+	}
+
+	/**
+	 * 无表查询的FROM子句
+	 * 
+	 * @return
+	 */
+	protected String dual() {
+		return "";
+	}
+
+}
@@ -0,0 +1,75 @@
+package cn.newphy.consis.dialect;
+
+import java.util.List;
+
+/**
+ * 数据库方言
+ * <p>
+ * 提供各数据库上最优的SQL写法, 由DAO和分布式锁在初始化时生成语句, 不在每次调用时拼接
+ *
+ * @author Newphy
+ */
+public interface Dialect {
+
+	/**
+	 * 方言名称
+	 * 
+	 * @return
+	 */
+	String getName();
+
+	/**
+	 * 限制返回行数, 行数为最后一个参数
+	 * 
+	 * @param sql
+	 *            包含ORDER BY的查询
+	 * @return
+	 */
+	String limit(String sql);
+
+	/**
+	 * 锁定并返回可认领的编号, 跳过其他事务已锁定的行; 参数为条件参数和行数
+	 * 
+	 * @param table
+	 * @param condition
+	 * @param orderBy
+	 * @return
+	 */
+	String claimSelectSql(String table, String condition, String orderBy);
+
+	/**
+	 * 单条语句认领, 参数为SET参数、条件参数和行数
+	 * 
+	 * @param table
+	 * @param setClause
+	 * @param condition
+	 * @param orderBy
+	 * @return
+	 */
+	String claimUpdateSql(String table, String setClause, String condition, String orderBy);
+
+	/**
+	 * 主键或唯一键已存在时忽略的插入语句, 参数为各列的值, 可用于批量
+	 * 
+	 * @param table
+	 * @param columns
+	 * @param keyColumns
+	 *            主键或唯一键
+	 * @return
+	 */
+	String insertIgnoreSql(String table, String[] columns, String[] keyColumns);
+
+	/**
+	 * 返回自增主键时指定的列名
+	 * 
+	 * @return 为空时使用Statement.RETURN_GENERATED_KEYS
+	 */
+	String[] generatedKeyColumns();
+
+	/**
+	 * 推荐的一致性表索引
+	 * 
+	 * @return 建索引语句
+	 */
+	List<String> recommendedIndexes();
+}
@@ -0,0 +1,82 @@
+package cn.newphy.consis.dialect;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+
+/**
+ * 方言注册表
+ * <p>
+ * 按名称获取方言, 或根据数据源的数据库产品名称识别; 无法识别时使用MySQL方言
+ *
+ * @author Newphy
+ */
+public abstract class Dialects {
+	private static final Logger logger = LoggerFactory.getLogger(Dialects.class);
+
+	private static final Map<String, Dialect> dialects = new ConcurrentHashMap<>();
+
+	private static final Dialect DEFAULT_DIALECT = new MySQLDialect();
+
+	static {
+		register(DEFAULT_DIALECT);
+		register(new PostgreSQLDialect());
+		register(new OracleDialect());
+		register(new H2Dialect());
+	}
+
+	/**
+	 * 注册方言
+	 *
+	 * @param dialect
+	 */
+	public static void register(Dialect dialect) {
+		dialects.put(dialect.getName(), dialect);
+	}
+
+	/**
+	 * 获得方言
+	 *
+	 * @param name
+	 * @return
+	 */
+	public static Dialect getDialect(String name) {
+		Dialect dialect = dialects.get(name.toLowerCase());
+		if (dialect == null) {
+			throw new IllegalStateException("没有注册方言[" + name + "]");
+		}
+		return dialect;
+	}
+
+	/**
+	 * 根据数据源识别方言
+	 *
+	 * @param dataSource
+	 * @return
+	 */
+	public static Dialect detect(DataSource dataSource) {
+		String productName;
+		try {
+			productName = (String) JdbcUtils.extractDatabaseMetaData(dataSource, "getDatabaseProductName");
+		} catch (MetaDataAccessException e) {
+			logger.warn("~~~ 无法获取数据库类型, 使用MySQL方言 ~~~", e);
+			return DEFAULT_DIALECT;
+		}
+		String name = productName == null ? "" : productName.toLowerCase();
+		if (name.contains("postgres")) {
+			return dialects.get(PostgreSQLDialect.NAME);
+		} else if (name.contains("oracle")) {
+			return dialects.get(OracleDialect.NAME);
+		} else if (name.equals("h2")) {
+			return dialects.get(H2Dialect.NAME);
+		}
+		return DEFAULT_DIALECT;
+	}
+
+}
@@ -0,0 +1,29 @@
+package cn.newphy.consis.dialect;
+
+/**
+ * H2方言, 用于测试
+ * <p>
+ * H2不支持SKIP LOCKED, 锁定认领时等待其他事务释放
+ *
+ * @author Newphy
+ */
+public class H2Dialect extends AbstractDialect {
+
+	public static final String NAME = "h2";
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public String claimSelectSql(String table, String condition, String orderBy) {
+		return limit("SELECT id FROM " + table + " WHERE " + condition + " ORDER BY " + orderBy) + " FOR UPDATE";
+	}
+
+	@Override
+	protected String createIndex(String name, String table, String columns, boolean unique) {
+		return "CREATE " + (unique ? "UNIQUE " : "") + "INDEX IF NOT EXISTS " + name + " ON " + table + " (" + columns + ")";
+	}
+
+}
@@ -0,0 +1,37 @@
+package cn.newphy.consis.dialect;
+
+import org.springframework.util.StringUtils;
+
+/**
+ * MySQL方言
+ * <p>
+ * MySQL不支持在IN子查询中使用LIMIT, 单条语句认领使用UPDATE ... ORDER BY ... LIMIT;
+ * SKIP LOCKED需要MySQL 8.0
+ *
+ * @author Newphy
+ */
+public class MySQLDialect extends AbstractDialect {
+
+	public static final String NAME = "mysql";
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public String claimUpdateSql(String table, String setClause, String condition, String orderBy) {
+		return limit("UPDATE " + table + " SET " + setClause + " WHERE " + condition + " ORDER BY " + orderBy);
+	}
+
+	@Override
+	public String insertIgnoreSql(String table, String[] columns, String[] keyColumns) {
+		StringBuilder values = new StringBuilder();
+		for (int i = 0; i < columns.length; i++) {
+			values.append(i == 0 ? "?" : ", ?");
+		}
+		return "INSERT INTO " + table + " (" + StringUtils.arrayToDelimitedString(columns, ", ") + ") VALUES (" + values
+				+ ") ON DUPLICATE KEY UPDATE " + keyColumns[0] + " = " + keyColumns[0];
+	}
+
+}
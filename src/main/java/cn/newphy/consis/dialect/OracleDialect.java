@@ -0,0 +1,47 @@
+package cn.newphy.consis.dialect;
+
+/**
+ * Oracle方言, 需要Oracle 12c及以上
+ * <p>
+ * FOR UPDATE不能与FETCH FIRST同时使用, 锁定认领时以ROWNUM限制行数, 不保证按重试时间排序
+ *
+ * @author Newphy
+ */
+public class OracleDialect extends AbstractDialect {
+
+	public static final String NAME = "oracle";
+
+	private static final String[] GENERATED_KEY_COLUMNS = new String[] { "ID" };
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public String limit(String sql) {
+		return sql + " FETCH FIRST ? ROWS ONLY";
+	}
+
+	@Override
+	public String claimSelectSql(String table, String condition, String orderBy) {
+		return "SELECT id FROM " + table + " WHERE " + condition + " AND ROWNUM <= ? FOR UPDATE SKIP LOCKED";
+	}
+
+	@Override
+	public String claimUpdateSql(String table, String setClause, String condition, String orderBy) {
+		return "UPDATE " + table + " SET " + setClause + " WHERE id IN (SELECT id FROM (SELECT id FROM " + table
+				+ " WHERE " + condition + " ORDER BY " + orderBy + ") WHERE ROWNUM <= ?)";
+	}
+
+	@Override
+	public String[] generatedKeyColumns() {
+		return GENERATED_KEY_COLUMNS;
+	}
+
+	@Override
+	protected String dual() {
+		return " FROM dual";
+	}
+
+}
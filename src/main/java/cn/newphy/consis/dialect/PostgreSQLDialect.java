@@ -0,0 +1,53 @@
+package cn.newphy.consis.dialect;
+
+import org.springframework.util.StringUtils;
+
+/**
+ * PostgreSQL方言
+ * <p>
+ * 单条语句认领在子查询中跳过已锁定的行; 重试索引使用部分索引, 只包含待重试的消息
+ *
+ * @author Newphy
+ */
+public class PostgreSQLDialect extends AbstractDialect {
+
+	public static final String NAME = "postgresql";
+
+	private static final String[] GENERATED_KEY_COLUMNS = new String[] { "id" };
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public String claimUpdateSql(String table, String setClause, String condition, String orderBy) {
+		return "UPDATE " + table + " SET " + setClause + " WHERE id IN (" + claimSelectSql(table, condition, orderBy) + ")";
+	}
+
+	@Override
+	public String insertIgnoreSql(String table, String[] columns, String[] keyColumns) {
+		StringBuilder values = new StringBuilder();
+		for (int i = 0; i < columns.length; i++) {
+			values.append(i == 0 ? "?" : ", ?");
+		}
+		return "INSERT INTO " + table + " (" + StringUtils.arrayToDelimitedString(columns, ", ") + ") VALUES (" + values
+				+ ") ON CONFLICT (" + StringUtils.arrayToDelimitedString(keyColumns, ", ") + ") DO NOTHING";
+	}
+
+	@Override
+	public String[] generatedKeyColumns() {
+		return GENERATED_KEY_COLUMNS;
+	}
+
+	@Override
+	protected String createRetryIndex(String name, String columns, int retryStatus) {
+		return createIndex(name, "t_consistency", columns, false) + " WHERE retry_status = " + retryStatus;
+	}
+
+	@Override
+	protected String createIndex(String name, String table, String columns, boolean unique) {
+		return "CREATE " + (unique ? "UNIQUE " : "") + "INDEX IF NOT EXISTS " + name + " ON " + table + " (" + columns + ")";
+	}
+
+}
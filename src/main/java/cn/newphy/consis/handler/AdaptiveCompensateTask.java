@@ -0,0 +1,277 @@
+package cn.newphy.consis.handler;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.ConcurrentTaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import cn.newphy.consis.dialect.Dialect;
+import cn.newphy.consis.support.lock.DBDistributedLock;
+import cn.newphy.consis.support.lock.DistributedLock;
+
+/**
+ * 自适应补偿任务
+ * <p>
+ * 每次补偿后按加载数量重新安排下次执行, 与其中有多少发送失败无关:
+ * <ul>
+ * <li>没有可补偿消息时, 间隔加倍直到最大间隔, 批量恢复为初始值</li>
+ * <li>取满批量时, 间隔减半直到最小间隔, 批量加倍直到最大批量</li>
+ * <li>未取满时恢复初始间隔, 批量不变</li>
+ * </ul>
+ * 发送失败和熔断、限流推迟的消息已推后重试时间, 不会在下一批重复加载.
+ * 一致性组件尚未启动时按当前间隔继续调度, 只有调用{@link #stop()}后才停止.
+ *
+ * @author Newphy
+ */
+public class AdaptiveCompensateTask implements ConsistencyCompensateTask {
+	private Logger logger = LoggerFactory.getLogger(ConsistencyCompensateTask.class);
+
+	private static final String LOCK_MODULE = "CONSISTENCY";
+
+	private ApplicationContext applicationContext;
+	// 分布式锁
+	private DistributedLock distributedLock;
+
+	private ConsistencyHandler consistencyHandler;
+
+	private TaskScheduler taskScheduler;
+
+	// 自行创建的调度器, 停止时关闭
+	private ThreadPoolTaskScheduler ownedScheduler;
+
+	private volatile boolean stopped = false;
+
+	// 初始间隔(毫秒)
+	private long initialInterval = 10000;
+
+	// 最小间隔(毫秒)
+	private long minInterval = 1000;
+
+	// 最大间隔(毫秒)
+	private long maxInterval = 60000;
+
+	// 初始批量
+	private int initialBatchSize = 500;
+
+	// 最大批量
+	private int maxBatchSize = 5000;
+
+	private volatile long currentInterval;
+
+	private volatile int currentBatchSize;
+
+	public AdaptiveCompensateTask(ConsistencyHandler consistencyHandler, ApplicationContext applicationContext, DataSource dataSource) {
+		this(consistencyHandler, applicationContext, dataSource, null);
+	}
+
+	/**
+	 * @param consistencyHandler
+	 * @param applicationContext
+	 * @param dataSource
+	 * @param dialect
+	 *            分布式锁使用的方言, 为空时根据数据源识别
+	 */
+	public AdaptiveCompensateTask(ConsistencyHandler consistencyHandler, ApplicationContext applicationContext, DataSource dataSource,
+			Dialect dialect) {
+		this.applicationContext = applicationContext;
+		this.consistencyHandler = consistencyHandler;
+		if(dataSource == null) {
+			throw new IllegalArgumentException("dataSource为空");
+		}
+		distributedLock = dialect != null ? new DBDistributedLock(dataSource, dialect) : new DBDistributedLock(dataSource);
+	}
+
+	@Override
+	public void start() {
+		logger.info("~~~ start adaptive compenstate task ~~~");
+		currentInterval = initialInterval;
+		currentBatchSize = initialBatchSize;
+		if (taskScheduler == null) {
+			taskScheduler = lookupScheduler();
+		}
+		schedule();
+	}
+
+	/**
+	 * 停止补偿, 正在执行的补偿完成后不再调度
+	 */
+	public void stop() {
+		logger.info("~~~ stop adaptive compenstate task ~~~");
+		stopped = true;
+		if (ownedScheduler != null) {
+			ownedScheduler.shutdown();
+		}
+	}
+
+	private void schedule() {
+		if (stopped) {
+			return;
+		}
+		try {
+			taskScheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						execute();
+					} finally {
+						// 任何异常和错误都不中断补偿调度
+						schedule();
+					}
+				}
+			}, new Date(System.currentTimeMillis() + currentInterval));
+		} catch (TaskRejectedException e) {
+			// 停止时调度器已关闭
+			if (!stopped) {
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * 执行一次补偿并调整间隔和批量
+	 */
+	private void execute() {
+		int batchSize = currentBatchSize;
+		CompensateResult result = new CompensateResult(0, 0);
+		try {
+			String token = distributedLock.lock(LOCK_MODULE);
+			if (token == null) {
+				// 其他节点正在补偿
+				return;
+			}
+			try {
+				result = ConsistencyHandlerSupport.compensateBatch(consistencyHandler, batchSize,
+						new DistributedLockLease(distributedLock, token));
+			} finally {
+				distributedLock.unlock(token);
+			}
+		} catch (RuntimeException e) {
+			logger.error("~~~ consistency compensate error ~~~", e);
+		}
+		if (!result.isStarted()) {
+			// 一致性组件尚未启动或已停止, 保持当前间隔
+			logger.debug("~~~ consistency handler not started, skip adaptive compensate ~~~");
+			return;
+		}
+		adjust(result.getLoaded(), batchSize);
+		logger.debug("~~~ finish compensate, loaded=[{}], count=[{}], nextInterval=[{}], batchSize=[{}] ~~~",
+				result.getLoaded(), result.getSuccess(), currentInterval, currentBatchSize);
+	}
+
+	/**
+	 * 按加载数量调整间隔和批量
+	 * 
+	 * @param loaded
+	 * @param batchSize
+	 */
+	private void adjust(int loaded, int batchSize) {
+		if (loaded == 0) {
+			currentInterval = Math.min(maxInterval, currentInterval * 2);
+			currentBatchSize = initialBatchSize;
+		} else if (loaded >= batchSize) {
+			currentInterval = Math.max(minInterval, currentInterval / 2);
+			currentBatchSize = Math.min(maxBatchSize, batchSize * 2);
+		} else {
+			currentInterval = initialInterval;
+		}
+	}
+
+	private TaskScheduler lookupScheduler() {
+		if (applicationContext != null) {
+			Map<String, TaskScheduler> schedulers = applicationContext.getBeansOfType(TaskScheduler.class);
+			if (schedulers.size() > 0) {
+				return schedulers.values().iterator().next();
+			}
+			Map<String, ScheduledExecutorService> executors = applicationContext.getBeansOfType(ScheduledExecutorService.class);
+			if (executors.size() > 0) {
+				return new ConcurrentTaskScheduler(executors.values().iterator().next());
+			}
+		}
+		ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+		scheduler.setThreadNamePrefix("consistency-compensate-");
+		scheduler.setDaemon(true);
+		scheduler.initialize();
+		ownedScheduler = scheduler;
+		return scheduler;
+	}
+
+	/**
+	 * @return 当前补偿间隔(毫秒)
+	 */
+	public long getCurrentInterval() {
+		return currentInterval;
+	}
+
+	/**
+	 * @return 当前补偿批量
+	 */
+	public int getCurrentBatchSize() {
+		return currentBatchSize;
+	}
+
+	/**
+	 * @param distributedLock
+	 *            the distributedLock to set
+	 */
+	public void setDistributedLock(DistributedLock distributedLock) {
+		this.distributedLock = distributedLock;
+	}
+
+	/**
+	 * @param taskScheduler
+	 *            the taskScheduler to set
+	 */
+	public void setTaskScheduler(TaskScheduler taskScheduler) {
+		this.taskScheduler = taskScheduler;
+	}
+
+	/**
+	 * @param initialInterval
+	 *            the initialInterval to set
+	 */
+	public void setInitialInterval(long initialInterval) {
+		this.initialInterval = initialInterval;
+	}
+
+	/**
+	 * @param minInterval
+	 *            the minInterval to set
+	 */
+	public void setMinInterval(long minInterval) {
+		this.minInterval = minInterval;
+	}
+
+	/**
+	 * @param maxInterval
+	 *            the maxInterval to set
+	 */
+	public void setMaxInterval(long maxInterval) {
+		this.maxInterval = maxInterval;
+	}
+
+	/**
+	 * @param initialBatchSize
+	 *            the initialBatchSize to set
+	 */
+	public void setInitialBatchSize(int initialBatchSize) {
+		this.initialBatchSize = initialBatchSize;
+	}
+
+	/**
+	 * @param maxBatchSize
+	 *            the maxBatchSize to set
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
+}
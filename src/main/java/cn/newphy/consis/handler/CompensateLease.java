@@ -0,0 +1,18 @@
+package cn.newphy.consis.handler;
+
+/**
+ * 补偿租约
+ * <p>
+ * 补偿过程中定期检查, 租约失效后停止处理剩余消息, 由下次补偿重新处理
+ *
+ * @author Newphy
+ */
+public interface CompensateLease {
+
+	/**
+	 * 租约是否仍然有效, 必要时续期
+	 * 
+	 * @return
+	 */
+	boolean isValid();
+}
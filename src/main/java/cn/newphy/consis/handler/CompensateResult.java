@@ -0,0 +1,54 @@
+package cn.newphy.consis.handler;
+
+/**
+ * 一次补偿的结果
+ * <p>
+ * 加载数量反映积压, 成功数量反映发送情况; 批次取满说明仍有积压, 与其中有多少发送失败无关
+ *
+ * @author Newphy
+ */
+public class CompensateResult {
+
+	/**
+	 * 一致性组件尚未启动或已停止
+	 */
+	public static final CompensateResult NOT_STARTED = new CompensateResult(-1, -1);
+
+	// 加载的消息数量
+	private final int loaded;
+
+	// 补偿成功数量
+	private final int success;
+
+	public CompensateResult(int loaded, int success) {
+		this.loaded = loaded;
+		this.success = success;
+	}
+
+	/**
+	 * @return 一致性组件是否已启动
+	 */
+	public boolean isStarted() {
+		return loaded >= 0;
+	}
+
+	/**
+	 * @return the loaded
+	 */
+	public int getLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * @return the success
+	 */
+	public int getSuccess() {
+		return success;
+	}
+
+	@Override
+	public String toString() {
+		return "CompensateResult[loaded=" + loaded + ", success=" + success + "]";
+	}
+
+}
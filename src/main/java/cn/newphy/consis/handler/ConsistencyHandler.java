@@ -1,5 +1,7 @@
 package cn.newphy.consis.handler;
 
+import java.util.Collection;
+
 import cn.newphy.consis.ConfirmLevel;
 import cn.newphy.consis.ConsistencyInfo;
 
@@ -46,6 +48,32 @@ public interface ConsistencyHandler {
 	 */
 	void handle(ConsistencyInfo consistencyInfo);
 
+	/**
+	 * 批量一致性处理
+	 * 
+	 * @param destination
+	 * @param objs
+	 *            业务对象或{@link ConsistencyObject}
+	 */
+	void handleAll(String destination, Collection<?> objs);
+
+	/**
+	 * 批量一致性处理
+	 * 
+	 * @param destination
+	 * @param objs
+	 *            业务对象或{@link ConsistencyObject}
+	 * @param confirmLevel
+	 */
+	void handleAll(String destination, Collection<?> objs, ConfirmLevel confirmLevel);
+
+	/**
+	 * 批量一致性处理
+	 * 
+	 * @param consistencyInfos
+	 */
+	void handleAll(Collection<ConsistencyInfo> consistencyInfos);
+
 	/**
 	 * 补偿操作
 	 * 
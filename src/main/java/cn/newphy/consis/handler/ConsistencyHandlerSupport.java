@@ -8,9 +8,18 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.util.Assert;
 
+import cn.newphy.consis.codec.PayloadCodec;
+import cn.newphy.consis.codec.PayloadCodecs;
 import cn.newphy.consis.dao.ConsistencyDao;
 import cn.newphy.consis.dao.ConsistencyDaoImpl;
+import cn.newphy.consis.dao.InlineConsistencyDaoImpl;
+import cn.newphy.consis.deadletter.DeadLetterReplayer;
+import cn.newphy.consis.dialect.Dialect;
+import cn.newphy.consis.dialect.Dialects;
 import cn.newphy.consis.support.IDFetcher;
+import cn.newphy.consis.support.id.IdGenerator;
+import cn.newphy.consis.support.lock.DistributedLock;
+import cn.newphy.consis.support.lock.NoopDistributedLock;
 
 public abstract class ConsistencyHandlerSupport implements ConsistencyHandler, ApplicationContextAware, InitializingBean {
 
@@ -25,24 +34,165 @@ public abstract class ConsistencyHandlerSupport implements ConsistencyHandler, A
 	 */
 	protected ConsistencyDao consistencyDao;
 
+	/**
+	 * 消息内容是否与一致性信息单表存储
+	 */
+	protected boolean inlineContent = false;
+
+	/**
+	 * 主键生成器, 为空时使用数据库自增主键
+	 */
+	protected IdGenerator idGenerator;
+
+	/**
+	 * 消息内容编码器
+	 */
+	protected PayloadCodec payloadCodec = PayloadCodecs.getDefault();
+
+	/**
+	 * 消息内容压缩阈值(字节), 小于等于0时不压缩
+	 */
+	protected int compressThreshold = 0;
+
 	/**
 	 * 一致性补偿任务
 	 */
 	protected ConsistencyCompensateTask compensateTask;
 
+	/**
+	 * 是否使用自适应补偿任务
+	 */
+	protected boolean adaptiveCompensate = false;
+
+	/**
+	 * 是否按行认领补偿, 开启后各节点同时补偿, 不再使用全局锁
+	 */
+	protected boolean claimCompensate = false;
+
+	/**
+	 * 认领租约(秒), 超过租约未完成的消息可被其他节点重新认领
+	 */
+	protected int claimLease = 60;
+
+	/**
+	 * 认领时是否使用SELECT ... FOR UPDATE SKIP LOCKED, 需要数据库支持
+	 */
+	protected boolean skipLocked = false;
+
+	/**
+	 * 数据库方言, 为空时根据数据源识别
+	 */
+	protected Dialect dialect;
+
+	/**
+	 * 重试窗口(小时), 只重试该时间内创建的消息, 按创建时间分区时设置以裁剪分区. 须大于重试策略的最大重试期限
+	 */
+	protected int retryWindowHours = 0;
+
 	
 	@Override
 	public void afterPropertiesSet() throws Exception {
 		Assert.notNull(this.dataSource, "一致性组件未设置数据源");
-		this.consistencyDao = new ConsistencyDaoImpl(this.dataSource);
+		// 重试窗口之外的消息不再被读取, 窗口须覆盖最大重试期限, 否则消息既不重试也不会失败
+		long maxRetryOverdue = getMaxRetryOverdue();
+		Assert.isTrue(retryWindowHours <= 0 || retryWindowHours * 3600000L > maxRetryOverdue, "重试窗口[" + retryWindowHours
+				+ "小时]须大于重试策略的最大重试期限[" + maxRetryOverdue + "毫秒]");
+		if (dialect == null) {
+			dialect = Dialects.detect(dataSource);
+		}
+		if (consistencyDao == null) {
+			ConsistencyDaoImpl dao = inlineContent ? new InlineConsistencyDaoImpl(this.dataSource, idGenerator, dialect)
+					: new ConsistencyDaoImpl(this.dataSource, idGenerator, dialect);
+			dao.setRetryWindowHours(retryWindowHours);
+			dao.setClaimEnabled(claimCompensate);
+			dao.setSkipLocked(skipLocked);
+			this.consistencyDao = dao;
+		}
 		if(compensateTask == null) {
-			compensateTask = new SchedulerCompensateTask(this, applicationContext, dataSource);
+			DistributedLock lock = claimCompensate ? new NoopDistributedLock() : null;
+			if (adaptiveCompensate) {
+				AdaptiveCompensateTask task = new AdaptiveCompensateTask(this, applicationContext, dataSource, dialect);
+				if (lock != null) {
+					task.setDistributedLock(lock);
+				}
+				compensateTask = task;
+			} else {
+				SchedulerCompensateTask task = new SchedulerCompensateTask(this, applicationContext, dataSource, dialect);
+				if (lock != null) {
+					task.setDistributedLock(lock);
+				}
+				compensateTask = task;
+			}
 		}
 		// 开始补偿任务
 		compensateTask.start();
 	}
 
 
+	/**
+	 * 补偿操作
+	 * <p>
+	 * 补偿过程中检查租约, 租约失效后停止处理剩余消息. 缺省不检查租约, 子类按需覆盖
+	 * 
+	 * @param maxCount
+	 * @param lease
+	 *            补偿租约, 为空时不检查
+	 * @return 补偿数量
+	 */
+	public int compensate(int maxCount, CompensateLease lease) {
+		return compensate(maxCount);
+	}
+
+	/**
+	 * 补偿一批消息, 返回加载数量和成功数量
+	 * <p>
+	 * 缺省无法区分加载数量, 按成功数量返回; 子类按需覆盖
+	 * 
+	 * @param maxCount
+	 * @param lease
+	 *            补偿租约, 为空时不检查
+	 * @return 补偿结果
+	 */
+	public CompensateResult compensateBatch(int maxCount, CompensateLease lease) {
+		int count = compensate(maxCount, lease);
+		return count < 0 ? CompensateResult.NOT_STARTED : new CompensateResult(count, count);
+	}
+
+	/**
+	 * 按租约补偿一批消息, 不支持租约的处理器按原方式补偿, 加载数量按成功数量计
+	 * 
+	 * @param handler
+	 * @param maxCount
+	 * @param lease
+	 * @return 补偿结果
+	 */
+	static CompensateResult compensateBatch(ConsistencyHandler handler, int maxCount, CompensateLease lease) {
+		if (handler instanceof ConsistencyHandlerSupport) {
+			return ((ConsistencyHandlerSupport) handler).compensateBatch(maxCount, lease);
+		}
+		int count = handler.compensate(maxCount);
+		return count < 0 ? CompensateResult.NOT_STARTED : new CompensateResult(count, count);
+	}
+
+	/**
+	 * 所用重试策略中最大的重试期限, 用于校验重试窗口
+	 * 
+	 * @return 最大重试期限(毫秒), 0为不限制
+	 */
+	protected long getMaxRetryOverdue() {
+		return 0;
+	}
+
+	/**
+	 * 创建死信重放器
+	 * 
+	 * @return
+	 */
+	public DeadLetterReplayer createDeadLetterReplayer() {
+		Assert.notNull(consistencyDao, "一致性组件尚未初始化");
+		return new DeadLetterReplayer(consistencyDao);
+	}
+
 	@Override
 	public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
 		this.applicationContext = applicationContext;
@@ -56,6 +206,122 @@ public abstract class ConsistencyHandlerSupport implements ConsistencyHandler, A
 	public void setDataSource(DataSource dataSource) {
 		this.dataSource = dataSource;
 	}
+
+	/**
+	 * @param consistencyDao
+	 *            the consistencyDao to set
+	 */
+	public void setConsistencyDao(ConsistencyDao consistencyDao) {
+		this.consistencyDao = consistencyDao;
+	}
+
+	/**
+	 * @param inlineContent
+	 *            the inlineContent to set
+	 */
+	public void setInlineContent(boolean inlineContent) {
+		this.inlineContent = inlineContent;
+	}
+
+	/**
+	 * @param idGenerator
+	 *            the idGenerator to set
+	 */
+	public void setIdGenerator(IdGenerator idGenerator) {
+		this.idGenerator = idGenerator;
+	}
+
+	/**
+	 * @return the payloadCodec
+	 */
+	public PayloadCodec getPayloadCodec() {
+		return payloadCodec;
+	}
+
+	/**
+	 * @param payloadCodec
+	 *            the payloadCodec to set
+	 */
+	public void setPayloadCodec(PayloadCodec payloadCodec) {
+		this.payloadCodec = payloadCodec;
+		PayloadCodecs.register(payloadCodec);
+	}
+
+	/**
+	 * @param compressThreshold
+	 *            the compressThreshold to set
+	 */
+	public void setCompressThreshold(int compressThreshold) {
+		this.compressThreshold = compressThreshold;
+	}
+
+	/**
+	 * @param compensateTask
+	 *            the compensateTask to set
+	 */
+	public void setCompensateTask(ConsistencyCompensateTask compensateTask) {
+		this.compensateTask = compensateTask;
+	}
+
+	/**
+	 * @return the compensateTask
+	 */
+	public ConsistencyCompensateTask getCompensateTask() {
+		return compensateTask;
+	}
+
+	/**
+	 * 设置是否按行认领补偿
+	 * <p>
+	 * 开启后需要t_consistency的claim_token和claim_expire列, 见{@link ConsistencyDaoImpl#setClaimEnabled(boolean)};
+	 * 自行设置consistencyDao时须同时开启其认领
+	 * 
+	 * @param claimCompensate
+	 *            the claimCompensate to set
+	 */
+	public void setClaimCompensate(boolean claimCompensate) {
+		this.claimCompensate = claimCompensate;
+	}
+
+	/**
+	 * @param claimLease
+	 *            the claimLease to set
+	 */
+	public void setClaimLease(int claimLease) {
+		this.claimLease = claimLease;
+	}
+
+	/**
+	 * @param skipLocked
+	 *            the skipLocked to set
+	 */
+	public void setSkipLocked(boolean skipLocked) {
+		this.skipLocked = skipLocked;
+	}
+
+	/**
+	 * @param dialect
+	 *            the dialect to set
+	 */
+	public void setDialect(Dialect dialect) {
+		this.dialect = dialect;
+	}
+
+	/**
+	 * @param retryWindowHours
+	 *            the retryWindowHours to set
+	 */
+	public void setRetryWindowHours(int retryWindowHours) {
+		this.retryWindowHours = retryWindowHours;
+	}
+
+	/**
+	 * @param adaptiveCompensate
+	 *            the adaptiveCompensate to set
+	 */
+	public void setAdaptiveCompensate(boolean adaptiveCompensate) {
+		this.adaptiveCompensate = adaptiveCompensate;
+	}
 	
 	
 	protected class IdConsistencyObject implements ConsistencyObject {
@@ -0,0 +1,40 @@
+package cn.newphy.consis.handler;
+
+import cn.newphy.consis.support.lock.DistributedLock;
+
+/**
+ * 基于分布式锁的补偿租约
+ * <p>
+ * 距上次续期超过续期间隔时延长分布式锁, 续期失败后租约失效
+ *
+ * @author Newphy
+ */
+class DistributedLockLease implements CompensateLease {
+
+	// 续期间隔(毫秒), 小于锁的过期时间
+	private static final long RENEW_INTERVAL = 30 * 1000L;
+
+	private final DistributedLock distributedLock;
+
+	private final String token;
+
+	private long lastRenewTime = System.currentTimeMillis();
+
+	private boolean valid = true;
+
+	DistributedLockLease(DistributedLock distributedLock, String token) {
+		this.distributedLock = distributedLock;
+		this.token = token;
+	}
+
+	@Override
+	public synchronized boolean isValid() {
+		long now = System.currentTimeMillis();
+		if (valid && now - lastRenewTime >= RENEW_INTERVAL) {
+			valid = distributedLock.extend(token);
+			lastRenewTime = now;
+		}
+		return valid;
+	}
+
+}
@@ -14,6 +14,7 @@ import org.springframework.scheduling.annotation.SchedulingConfigurer;
 import org.springframework.scheduling.config.CronTask;
 import org.springframework.scheduling.config.ScheduledTaskRegistrar;
 
+import cn.newphy.consis.dialect.Dialect;
 import cn.newphy.consis.support.lock.DBDistributedLock;
 import cn.newphy.consis.support.lock.DistributedLock;
 
@@ -36,15 +37,39 @@ public class SchedulerCompensateTask implements ConsistencyCompensateTask {
 	private ConsistencyHandler consistencyHandler;
 	
 	private String cronExpression = "*/10 * * * * ? ";
+
+	// 每批补偿数量
+	private int batchSize = MAX_RETRY;
+
+	// 是否连续补偿, 上一批取满时继续拉取下一批
+	private boolean drain = false;
+
+	// 每次调度连续补偿的时间上限(毫秒)
+	private long drainTimeBudget = 8000;
+
+	// 连续补偿批次间隔(毫秒)
+	private long drainPause = 50;
 	
 	
 	public SchedulerCompensateTask(ConsistencyHandler consistencyHandler, ApplicationContext applicationContext, DataSource dataSource) {
+		this(consistencyHandler, applicationContext, dataSource, null);
+	}
+
+	/**
+	 * @param consistencyHandler
+	 * @param applicationContext
+	 * @param dataSource
+	 * @param dialect
+	 *            分布式锁使用的方言, 为空时根据数据源识别
+	 */
+	public SchedulerCompensateTask(ConsistencyHandler consistencyHandler, ApplicationContext applicationContext, DataSource dataSource,
+			Dialect dialect) {
 		this.applicationContext = applicationContext;
 		this.consistencyHandler = consistencyHandler;
 		if(dataSource == null) {
 			throw new IllegalArgumentException("dataSource为空");
 		}
-		distributedLock = new DBDistributedLock(dataSource);
+		distributedLock = dialect != null ? new DBDistributedLock(dataSource, dialect) : new DBDistributedLock(dataSource);
 	}
 
 
@@ -80,10 +105,16 @@ public class SchedulerCompensateTask implements ConsistencyCompensateTask {
 			logger.info("~~~ consistency compensate, get distributed lock, token=[{}] ~~~", token);
 			// 获取锁成功
 			try {
-				int count = 0;
+				long deadline = System.currentTimeMillis() + drainTimeBudget;
+				CompensateLease lease = new DistributedLockLease(distributedLock, token);
+				CompensateResult result;
 				do {
-					total += consistencyHandler.compensate(MAX_RETRY);
-				} while (count > 0 && distributedLock.extend(token));
+					result = ConsistencyHandlerSupport.compensateBatch(consistencyHandler, batchSize, lease);
+					if (result.getSuccess() > 0) {
+						total += result.getSuccess();
+					}
+					// 按加载数量判断积压, 批次中的失败和推迟不中断连续补偿
+				} while (drain && result.getLoaded() >= batchSize && pause(deadline) && distributedLock.extend(token));
 			} finally {
 				distributedLock.unlock(token);
 			}
@@ -92,4 +123,78 @@ public class SchedulerCompensateTask implements ConsistencyCompensateTask {
 		logger.debug("~~~ finish compensate, compensate count=[{}] ~~~", total);
 	}
 
+	/**
+	 * 连续补偿批次间暂停
+	 * 
+	 * @param deadline
+	 * @return 是否可以继续补偿
+	 */
+	private boolean pause(long deadline) {
+		long remain = deadline - System.currentTimeMillis();
+		if (remain <= drainPause) {
+			return false;
+		}
+		if (drainPause > 0) {
+			try {
+				Thread.sleep(drainPause);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param distributedLock
+	 *            the distributedLock to set
+	 */
+	public void setDistributedLock(DistributedLock distributedLock) {
+		this.distributedLock = distributedLock;
+	}
+
+	/**
+	 * @param cronExpression
+	 *            the cronExpression to set
+	 */
+	public void setCronExpression(String cronExpression) {
+		this.cronExpression = cronExpression;
+	}
+
+	/**
+	 * @param batchSize
+	 *            the batchSize to set
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * 设置是否连续补偿
+	 * <p>
+	 * 开启后上一批取满批量时继续补偿下一批, 直到积压清空、超过时间上限或锁续期失败. 失败和推迟的消息已推后重试时间, 不会在下一批重复加载
+	 * 
+	 * @param drain
+	 *            the drain to set
+	 */
+	public void setDrain(boolean drain) {
+		this.drain = drain;
+	}
+
+	/**
+	 * @param drainTimeBudget
+	 *            the drainTimeBudget to set
+	 */
+	public void setDrainTimeBudget(long drainTimeBudget) {
+		this.drainTimeBudget = drainTimeBudget;
+	}
+
+	/**
+	 * @param drainPause
+	 *            the drainPause to set
+	 */
+	public void setDrainPause(long drainPause) {
+		this.drainPause = drainPause;
+	}
+
 }
@@ -0,0 +1,197 @@
+package cn.newphy.consis.handler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import cn.newphy.consis.ConsistencyInfo;
+import cn.newphy.consis.dao.ConsistencyDao;
+
+/**
+ * 发送成功消息的删除器
+ * <p>
+ * SENT级别的消息发送成功后不会再被读取, 直接删除而不是更新为不再重试. 按比例抽样写入审计表.
+ * 异步模式下编号进入队列, 由后台线程按批删除, 队列已满时同步删除. 调用方仍需将消息更新为不再重试,
+ * 与同一批次的其他消息一起更新, 删除之前补偿任务不会重复发送; 异步删除完成前进程退出时留下的已完成消息由归档任务清理.
+ *
+ * @author Newphy
+ */
+public class SentConsistencyPurger {
+	private Logger logger = LoggerFactory.getLogger(SentConsistencyPurger.class);
+
+	private final ConsistencyDao consistencyDao;
+
+	// 是否异步删除
+	private boolean async = false;
+
+	// 每批删除数量
+	private int batchSize = 500;
+
+	// 异步删除间隔(毫秒)
+	private long flushInterval = 200;
+
+	// 异步删除队列容量
+	private int queueCapacity = 100000;
+
+	// 审计抽样比例, 0为不审计, 1为全部审计
+	private double auditSampleRate = 0;
+
+	private BlockingQueue<Long> queue;
+
+	private ScheduledExecutorService flusher;
+
+	public SentConsistencyPurger(ConsistencyDao consistencyDao) {
+		this.consistencyDao = consistencyDao;
+	}
+
+	/**
+	 * 启动异步删除线程
+	 */
+	public void start() {
+		if (!async) {
+			return;
+		}
+		queue = new LinkedBlockingQueue<>(queueCapacity);
+		flusher = new ScheduledThreadPoolExecutor(1, new CustomizableThreadFactory("consistency-purger-"));
+		flusher.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					flush();
+				} catch (RuntimeException e) {
+					logger.error("~~~ 删除已发送消息出错, 消息由归档任务清理 ~~~", e);
+				}
+			}
+		}, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 停止异步删除线程, 删除队列中剩余的消息
+	 */
+	public void stop() {
+		if (flusher == null) {
+			return;
+		}
+		flusher.shutdown();
+		try {
+			flusher.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
+	}
+
+	/**
+	 * 删除发送成功的消息
+	 *
+	 * @param cinfos
+	 */
+	public void purge(List<ConsistencyInfo> cinfos) {
+		if (cinfos.isEmpty()) {
+			return;
+		}
+		audit(cinfos);
+		List<Long> ids = new ArrayList<>(cinfos.size());
+		for (ConsistencyInfo cinfo : cinfos) {
+			ids.add(cinfo.getId());
+		}
+		if (queue != null) {
+			List<Long> overflow = new ArrayList<>();
+			for (Long id : ids) {
+				if (!queue.offer(id)) {
+					overflow.add(id);
+				}
+			}
+			ids = overflow;
+		}
+		for (int from = 0; from < ids.size(); from += batchSize) {
+			consistencyDao.removeConsistencies(ids.subList(from, Math.min(ids.size(), from + batchSize)));
+		}
+	}
+
+	private void audit(List<ConsistencyInfo> cinfos) {
+		if (auditSampleRate <= 0) {
+			return;
+		}
+		List<ConsistencyInfo> samples = cinfos;
+		if (auditSampleRate < 1) {
+			samples = new ArrayList<>();
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			for (ConsistencyInfo cinfo : cinfos) {
+				if (random.nextDouble() < auditSampleRate) {
+					samples.add(cinfo);
+				}
+			}
+		}
+		try {
+			consistencyDao.addAudits(samples);
+		} catch (RuntimeException e) {
+			logger.warn("~~~ 写入发送审计记录出错, count={} ~~~", samples.size(), e);
+		}
+	}
+
+	private void flush() {
+		List<Long> ids = new ArrayList<>(batchSize);
+		while (queue.drainTo(ids, batchSize) > 0) {
+			consistencyDao.removeConsistencies(ids);
+			ids.clear();
+		}
+	}
+
+	/**
+	 * @return 是否异步删除, 异步删除时调用方仍需将消息更新为不再重试
+	 */
+	public boolean isAsync() {
+		return queue != null;
+	}
+
+	/**
+	 * @param async
+	 *            the async to set
+	 */
+	public void setAsync(boolean async) {
+		this.async = async;
+	}
+
+	/**
+	 * @param batchSize
+	 *            the batchSize to set
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @param flushInterval
+	 *            the flushInterval to set
+	 */
+	public void setFlushInterval(long flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+
+	/**
+	 * @param queueCapacity
+	 *            the queueCapacity to set
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * @param auditSampleRate
+	 *            the auditSampleRate to set
+	 */
+	public void setAuditSampleRate(double auditSampleRate) {
+		this.auditSampleRate = auditSampleRate;
+	}
+
+}
@@ -1,14 +1,39 @@
 package cn.newphy.consis.mq;
 
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.jms.BytesMessage;
 import javax.jms.ConnectionFactory;
 import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
 import javax.jms.Session;
 import javax.jms.TextMessage;
 import javax.sql.DataSource;
@@ -16,8 +41,16 @@ import javax.sql.DataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jms.InvalidDestinationException;
+import org.springframework.jms.connection.CachingConnectionFactory;
+import org.springframework.jms.connection.SingleConnectionFactory;
 import org.springframework.jms.core.JmsTemplate;
 import org.springframework.jms.core.MessageCreator;
+import org.springframework.jms.core.SessionCallback;
+import org.springframework.jms.support.JmsUtils;
+import org.springframework.jms.support.destination.DestinationResolutionException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.transaction.support.TransactionSynchronizationAdapter;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
@@ -29,29 +62,171 @@ import cn.newphy.consis.ConfirmMessage;
 import cn.newphy.consis.ConfirmStatus;
 import cn.newphy.consis.ConsistencyInfo;
 import cn.newphy.consis.DateUtils;
+import cn.newphy.consis.Priority;
 import cn.newphy.consis.RetryStatus;
+import cn.newphy.consis.codec.PayloadCodecs;
+import cn.newphy.consis.handler.AdaptiveCompensateTask;
+import cn.newphy.consis.handler.CompensateLease;
+import cn.newphy.consis.handler.CompensateResult;
 import cn.newphy.consis.handler.ConsistencyHandlerSupport;
 import cn.newphy.consis.handler.ConsistencyObject;
+import cn.newphy.consis.handler.SentConsistencyPurger;
+import cn.newphy.consis.retry.AbstractRetryPolicy;
+import cn.newphy.consis.retry.RetryPolicies;
+import cn.newphy.consis.retry.RetryPolicy;
+import cn.newphy.consis.retry.TieredRetryPolicy;
+import cn.newphy.consis.support.UniqueId;
+import cn.newphy.consis.support.breaker.CircuitBreaker;
+import cn.newphy.consis.support.breaker.CircuitBreakerGroup;
+import cn.newphy.consis.support.limit.TokenBucket;
+import cn.newphy.consis.support.timer.TimingWheel;
 import cn.newphy.consis.support.transaction.TransactionSynchronizationUtil;
 
 public class MQConsistencyHandler extends ConsistencyHandlerSupport implements DisposableBean {
 	private Logger logger = LoggerFactory.getLogger(MQConsistencyHandler.class);
 
 	private static final int DEFAULT_RETRY_INTERVAL = 10 * 60;
-	// 最大重试次数和重试过期时间
-	private static final int MAX_RETRY_COUNT = 100;
-	private static final long MAX_RETRY_OVERDUE = 10*24*3600*1000L;
+
+	// 时间轮到期判断容忍的时间误差(毫秒)
+	private static final long WHEEL_DUE_TOLERANCE = 1000;
 
 	private JmsTemplate jmsTemplate;
 
+	// 批量发送使用的事务Session模板
+	private JmsTemplate batchJmsTemplate;
+
 	private ConnectionFactory connectionFactory;
 
+	// 发送端连接缓存, 缓存Session和按目标地址缓存Producer
+	private CachingConnectionFactory cachingConnectionFactory;
+
+	// 是否缓存发送连接
+	private boolean cacheConnection = true;
+
+	// 缓存Session数量上限
+	private int sessionCacheSize = 10;
+
 	private String confirmDestination;
 	
 	private MQMessageListener mqMessageListener;
 	
 	private volatile boolean started = false;
 
+	// 是否异步发送事务提交后的消息
+	private boolean asyncSend = false;
+
+	// 是否按事务汇总发送, 同一事务的消息在一个事务Session中发送
+	private boolean transactionBatch = true;
+
+	// 是否延迟保存, 事务内只缓存消息, 提交前一次批量写入
+	private boolean deferredInsert = false;
+
+	// 异步发送线程数
+	private int sendThreads = 4;
+
+	// 异步发送队列容量
+	private int sendQueueCapacity = 1000;
+
+	// 关闭时等待发送完成的时间(秒)
+	private int shutdownTimeout = 30;
+
+	private ThreadPoolExecutor sendExecutor;
+
+	// 补偿工作线程数, 大于1时按分区并行补偿
+	private int compensateThreads = 1;
+
+	// 是否按目标地址分区, 否则按编号取模分区
+	private boolean partitionByDestination = false;
+
+	// 补偿分区内每次发送的消息数
+	private int compensateChunkSize = 50;
+
+	// 补偿同时发送中的消息数上限
+	private int maxInFlight = 200;
+
+	private ThreadPoolExecutor compensateExecutor;
+
+	// 未开启异步发送时执行时间轮到期重试的线程池
+	private ThreadPoolExecutor retryExecutor;
+
+	// 是否使用时间轮按时重试本节点发送过的消息
+	private boolean retryWheel = false;
+
+	// 开启时间轮后轮询补偿延后的时间(秒), 期间到期消息由时间轮重试
+	private int retryGrace = 30;
+
+	// 时间轮刻度(毫秒)
+	private long wheelTickMs = 100;
+
+	// 时间轮容量, 超过后由轮询补偿重试
+	private int wheelCapacity = 100000;
+
+	private TimingWheel retryTimer;
+
+	// 是否启用熔断
+	private boolean circuitBreakerEnabled = false;
+
+	// 熔断的连续失败次数
+	private int breakerFailureThreshold = 5;
+
+	// 熔断持续时间(毫秒)
+	private long breakerOpenTimeout = 30000;
+
+	// 半开状态探测间隔(毫秒)
+	private long breakerProbeInterval = 1000;
+
+	// 全局和按目标地址的熔断器, 未启用熔断时为空
+	private CircuitBreakerGroup breakers;
+
+	// 是否按目标地址公平补偿
+	private boolean fairCompensate = false;
+
+	// 目标地址补偿权重, 缺省为1
+	private Map<String, Integer> destinationWeights = new HashMap<>();
+
+	// 公平补偿起始目标地址轮换游标
+	private long fairCursor;
+
+	// 不再重试的消息是否移入死信表
+	private boolean deadLetter = false;
+
+	// SENT级别的消息发送成功后是否删除, 而不是更新为不再重试
+	private boolean deleteOnSent = false;
+
+	// 是否异步批量删除
+	private boolean asyncDelete = false;
+
+	// 删除时写入审计表的抽样比例
+	private double auditSampleRate = 0;
+
+	private SentConsistencyPurger sentPurger;
+
+	// 是否按优先级通道补偿和异步发送
+	private boolean priorityLanes = false;
+
+	// 各优先级通道的补偿份额, 缺省高:普通:低为6:3:1
+	private Map<Priority, Integer> priorityShares = defaultPriorityShares();
+
+	// 异步发送任务序号, 同优先级按提交顺序执行
+	private final AtomicLong dispatchSequence = new AtomicLong();
+
+	// 全局发送限流, 为空时不限流
+	private volatile TokenBucket globalLimiter;
+
+	// 按目标地址的发送限流
+	private final ConcurrentMap<String, TokenBucket> destinationLimiters = new ConcurrentHashMap<>();
+
+	// 缺省重试策略
+	private RetryPolicy defaultRetryPolicy = new TieredRetryPolicy();
+
+	// 按目标地址的重试策略
+	private Map<String, RetryPolicy> destinationRetryPolicies = new HashMap<>();
+
+	// 可通过名称引用的重试策略
+	private List<RetryPolicy> namedRetryPolicies = new ArrayList<>();
+
+	private Semaphore inFlight;
+
 	@Override
 	public void handle(String destination, ConsistencyObject cobj) {
 		this.handle(destination, cobj, ConfirmLevel.SENT);
@@ -91,7 +266,155 @@ public class MQConsistencyHandler extends ConsistencyHandlerSupport implements D
 
 	@Override
 	public void handle(final ConsistencyInfo cinfo) {
+		prepareConsistency(cinfo);
+		saveAndDispatch(Collections.singletonList(cinfo));
+	}
+
+	@Override
+	public void handleAll(String destination, Collection<?> objs) {
+		this.handleAll(destination, objs, ConfirmLevel.SENT);
+	}
+
+	@Override
+	public void handleAll(String destination, Collection<?> objs, ConfirmLevel confirmLevel) {
+		List<ConsistencyInfo> cinfos = new ArrayList<>(objs.size());
+		for (Object obj : objs) {
+			if (obj == null) {
+				throw new NullPointerException("一致性对象obj为空");
+			}
+			ConsistencyObject cobj = (obj instanceof ConsistencyObject) ? (ConsistencyObject) obj
+					: new IdConsistencyObject(obj);
+			if (cobj.getObject() == null) {
+				throw new NullPointerException("一致性对象cobj为空");
+			}
+			ConsistencyInfo cinfo = createConsistencyInfo(destination, cobj);
+			if (confirmLevel != null) {
+				cinfo.setConfirmLevel(confirmLevel);
+			}
+			cinfos.add(cinfo);
+		}
+		handleAll(cinfos);
+	}
+
+	@Override
+	public void handleAll(Collection<ConsistencyInfo> consistencyInfos) {
+		if (consistencyInfos.isEmpty()) {
+			return;
+		}
+		final List<ConsistencyInfo> cinfos = new ArrayList<>(consistencyInfos);
+		for (ConsistencyInfo cinfo : cinfos) {
+			prepareConsistency(cinfo);
+		}
+		saveAndDispatch(cinfos);
+	}
+
+	/**
+	 * 保存消息并注册事务提交后发送
+	 * <p>
+	 * 延迟保存模式下消息只缓存在当前事务中, 提交前批量写入, 与业务数据在同一事务内提交; 没有事务时立即保存
+	 * 
+	 * @param cinfos
+	 */
+	private void saveAndDispatch(List<ConsistencyInfo> cinfos) {
+		if (deferredInsert && TransactionSynchronizationUtil.isSynchronizationActive()) {
+			TransactionMessages messages = currentMessages();
+			messages.pending.addAll(cinfos);
+			messages.cinfos.addAll(cinfos);
+			return;
+		}
 		// 保存消息
+		if (cinfos.size() == 1) {
+			consistencyDao.addConsistency(cinfos.get(0));
+		} else {
+			consistencyDao.addConsistencies(cinfos);
+		}
+		// 发送消息
+		registerDispatch(cinfos);
+	}
+
+	/**
+	 * 注册事务提交后发送
+	 * <p>
+	 * 事务汇总模式下同一事务的消息只注册一个同步器, 提交后一起发送
+	 * 
+	 * @param cinfos
+	 */
+	private void registerDispatch(final List<ConsistencyInfo> cinfos) {
+		if (transactionBatch && TransactionSynchronizationUtil.isSynchronizationActive()) {
+			currentMessages().cinfos.addAll(cinfos);
+			return;
+		}
+		TransactionSynchronizationUtil.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCommit() {
+				dispatchMessages(cinfos);
+			}
+		});
+	}
+
+	/**
+	 * 获得当前事务的消息汇总, 不存在时创建并绑定到事务
+	 * <p>
+	 * 汇总随事务挂起解绑, 内层REQUIRES_NEW事务使用各自的汇总, 延迟写入的消息在产生它的事务提交前写入
+	 * 
+	 * @return
+	 */
+	private TransactionMessages currentMessages() {
+		TransactionMessages messages = TransactionSynchronizationUtil.getResource(this);
+		if (messages == null) {
+			messages = new TransactionMessages();
+			TransactionSynchronizationUtil.bindSynchronization(this, messages);
+		}
+		return messages;
+	}
+
+	/**
+	 * 分发事务提交后的消息
+	 * <p>
+	 * 异步模式下交由发送线程池处理, 线程池已满或已关闭时不再发送, 由补偿任务按重试时间重发
+	 * 
+	 * @param cinfos
+	 */
+	private void dispatchMessages(final List<ConsistencyInfo> cinfos) {
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				if (transactionBatch) {
+					try {
+						sendMessages(cinfos);
+					} catch (RuntimeException e) {
+						logger.error("~~~ 批量发送一致性消息出错, 由补偿任务重发, count={} ~~~", cinfos.size(), e);
+					}
+					return;
+				}
+				for (ConsistencyInfo cinfo : cinfos) {
+					try {
+						sendMessage(cinfo);
+					} catch (RuntimeException e) {
+						logger.error("~~~ 发送一致性消息出错, 由补偿任务重发, txId={} ~~~", cinfo.getTxId(), e);
+					}
+				}
+			}
+		};
+		if (sendExecutor == null) {
+			task.run();
+			return;
+		}
+		try {
+			if (priorityLanes) {
+				// 优先级队列无界, 按容量限制排队数量
+				if (sendExecutor.getQueue().size() >= sendQueueCapacity) {
+					throw new RejectedExecutionException("发送队列已满");
+				}
+				task = new PriorityTask(task, getPriority(cinfos), dispatchSequence.incrementAndGet());
+			}
+			sendExecutor.execute(task);
+		} catch (RejectedExecutionException e) {
+			logger.warn("~~~ 发送线程池已满, 消息由补偿任务重发, count={} ~~~", cinfos.size());
+		}
+	}
+
+	private void prepareConsistency(ConsistencyInfo cinfo) {
 		Date firstTime = new Date();
 		cinfo.setFirstSentTime(firstTime);
 		cinfo.setRetryCount(0);
@@ -99,58 +422,694 @@ public class MQConsistencyHandler extends ConsistencyHandlerSupport implements D
 		cinfo.setRetryTime(DateUtils.addSeconds(new Date(), cinfo.getRetryInterval()));
 		cinfo.setConfirmDestination(confirmDestination);		
 		cinfo.setConfirmStatus(ConfirmStatus.INTIAL);
-		consistencyDao.addConsistency(cinfo);
-		// 发送消息
-		TransactionSynchronizationUtil.registerSynchronization(new TransactionSynchronizationAdapter() {
-			@Override
-			public void afterCommit() {
-				sendMessage(cinfo);
-			}
-		});
 	}
 
 	@Override
 	public int compensate(int maxCount) {
+		return compensate(maxCount, null);
+	}
+
+	@Override
+	public int compensate(int maxCount, CompensateLease lease) {
+		return compensateBatch(maxCount, lease).getSuccess();
+	}
+
+	@Override
+	public CompensateResult compensateBatch(int maxCount, CompensateLease lease) {
 		if(started) {
-			List<ConsistencyInfo> messages = consistencyDao.queryRetryList(maxCount);
-			int success = 0;
-			for (ConsistencyInfo message : messages) {
-				ConsistencyInfo detail = consistencyDao.getDetail(message.getId());
-				success += sendMessage(detail) ? 1 : 0;
+			// 一次查询整批消息, 同一事务Session发送, 批量更新重试状态
+			// 时间轮负责的消息延后轮询, 本节点未能按时重试时再由轮询补偿
+			Date dueTime = new Date(System.currentTimeMillis() - (retryTimer != null ? retryGrace * 1000L : 0));
+			Claims claims = claimCompensate ? new Claims() : null;
+			List<ConsistencyInfo> messages = priorityLanes ? loadLaneRetries(maxCount, dueTime, claims)
+					: loadBatch(maxCount, dueTime, null, claims);
+			if (messages.isEmpty()) {
+				return new CompensateResult(0, 0);
+			}
+			int success;
+			if (messages.size() <= compensateChunkSize) {
+				success = sendMessages(messages);
+			} else if (compensateExecutor != null) {
+				success = compensatePartitions(partition(messages), lease, claims);
+			} else if (claims != null) {
+				// 认领的消息分块发送, 块间续期认领
+				success = compensatePartition(messages, lease, claims);
+			} else {
+				success = sendMessages(messages);
 			}
-			return success;
+			return new CompensateResult(messages.size(), success);
 		}
-		return -1;
+		return CompensateResult.NOT_STARTED;
 	}
-	
-	
+
+	private List<ConsistencyInfo> loadRetries(int maxCount, Date dueTime, String destination, Priority priority,
+			Claims claims) {
+		if (claims != null) {
+			return consistencyDao.claimRetryDetails(maxCount, dueTime, destination, priority, claims.newToken(), claimLease);
+		}
+		return consistencyDao.queryRetryDetails(maxCount, dueTime, destination, priority);
+	}
+
+	private List<ConsistencyInfo> loadBatch(int maxCount, Date dueTime, Priority priority, Claims claims) {
+		return fairCompensate ? loadFairRetries(maxCount, dueTime, priority, claims)
+				: loadRetries(maxCount, dueTime, null, priority, claims);
+	}
+
 	/**
-	 * 增加重试策略
+	 * 按优先级通道加载重试消息
 	 * <p>
-	 * <ul>
-	 * <li>第一阶段: < 10, 按设置时间发送  </li>
-	 *  <li>第二阶段: 10<= retryCount < 20,  最小600s间隔 </li>
-	 *  <li> 第三阶段: 20 <= retryCount <30, 最小1800s间隔 </li>
-	 *  <li>第四阶段: 30 <= retryCount <MaxRetryCount, 最小3600s间隔 </li>
-	 *  <li>最高限制: 10天或100次 </li>
-	 * </p>
+	 * 每个通道按份额分配配额, 至少一条; 配额未用完时依次分给高优先级通道的积压, 高优先级消息始终有保证的份额
 	 * 
-	 * @param consistencyInfo
+	 * @param maxCount
+	 * @param dueTime
+	 * @param claims
+	 *            认领标识, 为空时不认领
 	 * @return
 	 */
+	private List<ConsistencyInfo> loadLaneRetries(int maxCount, Date dueTime, Claims claims) {
+		Priority[] lanes = Priority.values();
+		int totalShare = 0;
+		for (Priority lane : lanes) {
+			totalShare += getPriorityShare(lane);
+		}
+		List<ConsistencyInfo> result = new ArrayList<>(maxCount);
+		Map<Priority, Integer> fulls = new LinkedHashMap<>();
+		int remain = maxCount;
+		for (int i = lanes.length - 1; i >= 0 && remain > 0; i--) {
+			int quota = (int) Math.max(1, (long) maxCount * getPriorityShare(lanes[i]) / totalShare);
+			quota = Math.min(quota, remain);
+			List<ConsistencyInfo> messages = loadBatch(quota, dueTime, lanes[i], claims);
+			result.addAll(messages);
+			remain -= messages.size();
+			if (messages.size() >= quota) {
+				fulls.put(lanes[i], messages.size());
+			}
+		}
+		// 剩余配额按优先级从高到低分给仍有积压的通道, 跳过已加载的消息
+		if (remain > 0 && !fulls.isEmpty()) {
+			Set<Long> loaded = new HashSet<>();
+			for (ConsistencyInfo message : result) {
+				loaded.add(message.getId());
+			}
+			for (Map.Entry<Priority, Integer> entry : fulls.entrySet()) {
+				if (remain <= 0) {
+					break;
+				}
+				int limit = claimCompensate ? remain : entry.getValue() + remain;
+				for (ConsistencyInfo message : loadBatch(limit, dueTime, entry.getKey(), claims)) {
+					if (remain > 0 && loaded.add(message.getId())) {
+						result.add(message);
+						remain--;
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	private static Map<Priority, Integer> defaultPriorityShares() {
+		Map<Priority, Integer> shares = new HashMap<>();
+		shares.put(Priority.HIGH, 6);
+		shares.put(Priority.NORMAL, 3);
+		shares.put(Priority.LOW, 1);
+		return shares;
+	}
+
+	private int getPriorityShare(Priority priority) {
+		Integer share = priorityShares.get(priority);
+		return share != null && share > 0 ? share : 1;
+	}
+
+	/**
+	 * 按目标地址公平加载重试消息
+	 * <p>
+	 * 补偿数量按目标地址权重分配配额, 每个目标地址至少一条, 起始目标地址每次轮换;
+	 * 积压少的目标地址剩余的配额再分给取满配额的目标地址. 单个目标地址的积压不会占满整批.
+	 * 
+	 * @param maxCount
+	 * @param dueTime
+	 * @param priority
+	 *            优先级, 为空时不限
+	 * @param claims
+	 *            认领标识, 为空时不认领
+	 * @return
+	 */
+	private List<ConsistencyInfo> loadFairRetries(int maxCount, Date dueTime, Priority priority, Claims claims) {
+		List<String> destinations = new ArrayList<>(consistencyDao.queryRetryDestinations(dueTime, priority));
+		if (destinations.isEmpty()) {
+			return Collections.emptyList();
+		}
+		Collections.rotate(destinations, -(int) ((fairCursor++ & Integer.MAX_VALUE) % destinations.size()));
+		int totalWeight = 0;
+		for (String destination : destinations) {
+			totalWeight += getDestinationWeight(destination);
+		}
+		List<ConsistencyInfo> result = new ArrayList<>(maxCount);
+		Map<String, Integer> fulls = new LinkedHashMap<>();
+		int remain = maxCount;
+		for (String destination : destinations) {
+			if (remain <= 0) {
+				break;
+			}
+			int quota = (int) Math.max(1, (long) maxCount * getDestinationWeight(destination) / totalWeight);
+			quota = Math.min(quota, remain);
+			List<ConsistencyInfo> messages = loadRetries(quota, dueTime, destination, priority, claims);
+			result.addAll(messages);
+			remain -= messages.size();
+			if (messages.size() >= quota) {
+				fulls.put(destination, messages.size());
+			}
+		}
+		// 剩余配额分给仍有积压的目标地址, 跳过已加载的消息
+		if (remain > 0 && !fulls.isEmpty()) {
+			Set<Long> loaded = new HashSet<>();
+			for (ConsistencyInfo message : result) {
+				loaded.add(message.getId());
+			}
+			for (Map.Entry<String, Integer> entry : fulls.entrySet()) {
+				if (remain <= 0) {
+					break;
+				}
+				int limit = claimCompensate ? remain : entry.getValue() + remain;
+				for (ConsistencyInfo message : loadRetries(limit, dueTime, entry.getKey(), priority, claims)) {
+					if (remain > 0 && loaded.add(message.getId())) {
+						result.add(message);
+						remain--;
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	private int getDestinationWeight(String destination) {
+		Integer weight = destinationWeights.get(destination);
+		return weight != null && weight > 0 ? weight : 1;
+	}
+
+	/**
+	 * 按分区并行补偿
+	 * <p>
+	 * 每个分区由一个工作线程按块发送, 发送前检查租约, 租约失效后剩余消息留待下次补偿
+	 * 
+	 * @param partitions
+	 * @param lease
+	 * @param claims
+	 *            认领标识, 为空时不认领
+	 * @return 补偿成功数量
+	 */
+	private int compensatePartitions(List<List<ConsistencyInfo>> partitions, final CompensateLease lease,
+			final Claims claims) {
+		List<Future<Integer>> futures = new ArrayList<>(partitions.size());
+		for (final List<ConsistencyInfo> partition : partitions) {
+			futures.add(compensateExecutor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					return compensatePartition(partition, lease, claims);
+				}
+			}));
+		}
+		int success = 0;
+		for (Future<Integer> future : futures) {
+			try {
+				success += future.get();
+			} catch (ExecutionException e) {
+				logger.error("~~~ 分区补偿出错 ~~~", e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		return success;
+	}
+
+	/**
+	 * 按块发送一个分区
+	 * 
+	 * @param partition
+	 * @param lease
+	 * @param claims
+	 *            认领标识, 为空时不认领
+	 * @return 补偿成功数量
+	 */
+	private int compensatePartition(List<ConsistencyInfo> partition, CompensateLease lease, Claims claims) {
+		int success = 0;
+		for (int from = 0; from < partition.size(); from += compensateChunkSize) {
+			if (lease != null && !lease.isValid()) {
+				logger.warn("~~~ 补偿租约已失效, 剩余消息由下次补偿处理, remains={} ~~~", partition.size() - from);
+				break;
+			}
+			if (claims != null) {
+				claims.renewIfDue();
+			}
+			List<ConsistencyInfo> chunk = partition.subList(from, Math.min(partition.size(), from + compensateChunkSize));
+			if (inFlight == null) {
+				success += sendMessages(chunk);
+				continue;
+			}
+			try {
+				inFlight.acquire(chunk.size());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			try {
+				success += sendMessages(chunk);
+			} finally {
+				inFlight.release(chunk.size());
+			}
+		}
+		return success;
+	}
+
+	private List<List<ConsistencyInfo>> partition(List<ConsistencyInfo> messages) {
+		List<List<ConsistencyInfo>> partitions = new ArrayList<>(compensateThreads);
+		for (int i = 0; i < compensateThreads; i++) {
+			partitions.add(new ArrayList<ConsistencyInfo>());
+		}
+		for (ConsistencyInfo message : messages) {
+			long key = partitionByDestination ? message.getDestination().hashCode() : message.getId();
+			partitions.get((int) ((key & Long.MAX_VALUE) % compensateThreads)).add(message);
+		}
+		for (Iterator<List<ConsistencyInfo>> it = partitions.iterator(); it.hasNext();) {
+			if (it.next().isEmpty()) {
+				it.remove();
+			}
+		}
+		return partitions;
+	}
+	
+	
 	private boolean sendMessage(ConsistencyInfo consistencyInfo) {
-		int retryCount = consistencyInfo.getRetryCount();
-		int retryInterval = consistencyInfo.getRetryInterval();
-		Date firstTime = consistencyInfo.getFirstSentTime();
 		// 超过次数和超时都不再发送
-		if(retryCount == MAX_RETRY_COUNT || System.currentTimeMillis() - firstTime.getTime() > MAX_RETRY_OVERDUE) {
-			consistencyInfo.setRetryStatus(RetryStatus.NO);
-			consistencyInfo.setFailCause("超过最大过期时间和重试次数");
-			consistencyDao.updateConsistency(consistencyInfo);
+		if (isExhausted(consistencyInfo)) {
+			if (deadLetter && consistencyInfo.getId() > 0) {
+				consistencyDao.moveToDead(Collections.singletonList(consistencyInfo));
+			} else {
+				consistencyDao.updateConsistency(consistencyInfo);
+			}
+			return false;
+		}
+		// 熔断或限流时不发送, 推迟重试时间
+		if (!allowSend(consistencyInfo)) {
+			deferMessages(Collections.singletonList(consistencyInfo));
 			return false;
 		}
 		// 发送消息
 		String failCause = doSendMessage(consistencyInfo);
+		boolean successful = applySendResult(consistencyInfo, failCause);
+		if (isPurgeable(consistencyInfo)) {
+			sentPurger.purge(Collections.singletonList(consistencyInfo));
+			if (!sentPurger.isAsync()) {
+				return true;
+			}
+		}
+		consistencyDao.updateConsistency(consistencyInfo);
+		scheduleRetries(Collections.singletonList(consistencyInfo));
+		return successful;
+	}
+
+	/**
+	 * 批量发送消息
+	 * <p>
+	 * 所有消息在同一个事务Session中发送并一次提交, 发送结果批量更新.
+	 * 事务发送失败时改为逐条发送, 单条失败只影响该条消息的重试时间
+	 * 
+	 * @param cinfos
+	 * @return 发送成功数量
+	 */
+	private int sendMessages(List<ConsistencyInfo> cinfos) {
+		if (cinfos.size() == 1) {
+			return sendMessage(cinfos.get(0)) ? 1 : 0;
+		}
+		List<ConsistencyInfo> sendList = new ArrayList<>(cinfos.size());
+		List<ConsistencyInfo> deferList = new ArrayList<>();
+		List<ConsistencyInfo> deadList = new ArrayList<>();
+		for (ConsistencyInfo cinfo : cinfos) {
+			if (isExhausted(cinfo)) {
+				if (deadLetter && cinfo.getId() > 0) {
+					deadList.add(cinfo);
+				}
+				continue;
+			}
+			if (allowSend(cinfo)) {
+				sendList.add(cinfo);
+			} else {
+				deferList.add(cinfo);
+			}
+		}
+		int success = 0;
+		if (sendList.size() > 1) {
+			AtomicBoolean connected = new AtomicBoolean();
+			String failCause = doSendMessages(sendList, connected);
+			if (StringUtils.isEmpty(failCause)) {
+				for (ConsistencyInfo cinfo : sendList) {
+					success += applySendResult(cinfo, "") ? 1 : 0;
+				}
+			} else {
+				// 整批发送失败时逐条发送, 避免单条异常消息阻塞整批; 熔断后剩余消息不再发送.
+				// 令牌已在整批发送前获取, 逐条发送只检查熔断, 未发送的消息归还令牌.
+				// 连接失败时剩余消息不再逐条等待连接超时, 归还令牌并按同一原因推迟, 不计入重试次数
+				for (ConsistencyInfo cinfo : sendList) {
+					if (!connected.get()) {
+						releasePermit(cinfo.getDestination());
+						applyUnsent(cinfo, failCause);
+					} else if (isBreakerClosed(cinfo)) {
+						String cause = doSendMessage(cinfo, connected);
+						if (!connected.get()) {
+							failCause = cause;
+						}
+						success += applySendResult(cinfo, cause) ? 1 : 0;
+					} else {
+						releasePermit(cinfo.getDestination());
+						deferList.add(cinfo);
+					}
+				}
+			}
+		} else if (!sendList.isEmpty()) {
+			ConsistencyInfo cinfo = sendList.get(0);
+			success += applySendResult(cinfo, doSendMessage(cinfo)) ? 1 : 0;
+		}
+		List<ConsistencyInfo> updateList = cinfos;
+		if (!deferList.isEmpty() || !deadList.isEmpty()) {
+			updateList = new ArrayList<>(cinfos);
+			updateList.removeAll(deferList);
+			updateList.removeAll(deadList);
+		}
+		if (!deferList.isEmpty()) {
+			deferMessages(deferList);
+		}
+		if (!deadList.isEmpty()) {
+			consistencyDao.moveToDead(deadList);
+		}
+		if (sentPurger != null) {
+			updateList = purgeSent(updateList);
+		}
+		consistencyDao.updateConsistencies(updateList);
+		scheduleRetries(updateList);
+		return success;
+	}
+
+	/**
+	 * 是否删除发送成功的消息: 开启删除模式且SENT级别的消息发送成功
+	 * 
+	 * @param cinfo
+	 * @return
+	 */
+	private boolean isPurgeable(ConsistencyInfo cinfo) {
+		return sentPurger != null && cinfo.getId() > 0 && cinfo.getConfirmLevel() == ConfirmLevel.SENT
+				&& cinfo.getRetryStatus() == RetryStatus.NO && StringUtils.isEmpty(cinfo.getFailCause());
+	}
+
+	/**
+	 * 删除发送成功的消息
+	 * <p>
+	 * 异步删除时消息仍随同一批次更新为不再重试, 删除之前不会被补偿任务重复发送, 不额外写库
+	 * 
+	 * @param cinfos
+	 * @return 仍需更新的消息
+	 */
+	private List<ConsistencyInfo> purgeSent(List<ConsistencyInfo> cinfos) {
+		List<ConsistencyInfo> purgeList = new ArrayList<>(cinfos.size());
+		List<ConsistencyInfo> updateList = new ArrayList<>(cinfos.size());
+		for (ConsistencyInfo cinfo : cinfos) {
+			if (isPurgeable(cinfo)) {
+				purgeList.add(cinfo);
+			} else {
+				updateList.add(cinfo);
+			}
+		}
+		sentPurger.purge(purgeList);
+		return sentPurger.isAsync() ? cinfos : updateList;
+	}
+
+	/**
+	 * 是否允许发送, 全局熔断器和目标地址熔断器都放行时允许
+	 * 
+	 * @param cinfo
+	 * @return
+	 */
+	private boolean allowSend(ConsistencyInfo cinfo) {
+		return isBreakerClosed(cinfo) && acquirePermit(cinfo.getDestination());
+	}
+
+	/**
+	 * 全局熔断器和目标地址熔断器是否都放行
+	 * 
+	 * @param cinfo
+	 * @return
+	 */
+	private boolean isBreakerClosed(ConsistencyInfo cinfo) {
+		return breakers == null || breakers.allowRequest(cinfo.getDestination());
+	}
+
+	/**
+	 * 获取全局和目标地址的发送令牌, 目标地址没有令牌时归还全局令牌
+	 * 
+	 * @param destination
+	 * @return
+	 */
+	private boolean acquirePermit(String destination) {
+		TokenBucket global = globalLimiter;
+		if (global != null && !global.tryAcquire(1)) {
+			return false;
+		}
+		TokenBucket limiter = destinationLimiters.get(destination);
+		if (limiter != null && !limiter.tryAcquire(1)) {
+			if (global != null) {
+				global.release(1);
+			}
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * 归还未使用的全局和目标地址发送令牌
+	 * 
+	 * @param destination
+	 */
+	private void releasePermit(String destination) {
+		if (globalLimiter != null) {
+			globalLimiter.release(1);
+		}
+		TokenBucket limiter = destinationLimiters.get(destination);
+		if (limiter != null) {
+			limiter.release(1);
+		}
+	}
+
+	/**
+	 * 记录发送结果到熔断器, 失败只计入目标地址熔断器
+	 * 
+	 * @param destination
+	 * @param successful
+	 */
+	private void recordSendResult(String destination, boolean successful) {
+		if (breakers == null) {
+			return;
+		}
+		if (successful) {
+			breakers.onSuccess(destination);
+		} else {
+			breakers.onFailure(destination);
+		}
+	}
+
+	/**
+	 * 记录连接失败到全局熔断器
+	 */
+	private void recordConnectionFailure() {
+		if (breakers != null) {
+			breakers.onConnectionFailure();
+		}
+	}
+
+	/**
+	 * 推迟未发送的消息
+	 * <p>
+	 * 不计入重试次数和失败原因; 推迟到熔断恢复或令牌足够发送该条消息的时间.
+	 * 同一目标地址的消息按先后顺序以限流速率错开, 避免到期时同时重试; 重试时间已在之后的消息不需要更新
+	 * 
+	 * @param cinfos
+	 */
+	private void deferMessages(List<ConsistencyInfo> cinfos) {
+		long breakerUntil = System.currentTimeMillis();
+		if (breakers != null) {
+			breakerUntil = Math.max(breakerUntil, breakers.getRetryAfter());
+		}
+		TokenBucket global = globalLimiter;
+		Map<String, Integer> positions = new HashMap<>();
+		List<ConsistencyInfo> delayList = new ArrayList<>(cinfos.size());
+		long latest = breakerUntil;
+		for (int i = 0; i < cinfos.size(); i++) {
+			ConsistencyInfo cinfo = cinfos.get(i);
+			String destination = cinfo.getDestination();
+			Integer position = positions.get(destination);
+			position = position == null ? 1 : position + 1;
+			positions.put(destination, position);
+			long deferUntil = breakerUntil;
+			if (breakers != null) {
+				deferUntil = Math.max(deferUntil, breakers.getRetryAfter(destination));
+			}
+			if (global != null) {
+				deferUntil = Math.max(deferUntil, global.getRetryAfter(i + 1));
+			}
+			TokenBucket limiter = destinationLimiters.get(destination);
+			if (limiter != null) {
+				deferUntil = Math.max(deferUntil, limiter.getRetryAfter(position));
+			}
+			if (cinfo.getId() > 0 && cinfo.getRetryTime().getTime() < deferUntil) {
+				cinfo.setRetryTime(new Date(deferUntil));
+				delayList.add(cinfo);
+			}
+			latest = Math.max(latest, deferUntil);
+		}
+		logger.info("~~~ 熔断或限流中, 推迟发送一致性消息, count={}, latestRetryTime={} ~~~", cinfos.size(), new Date(latest));
+		consistencyDao.delayRetries(delayList);
+		scheduleRetries(cinfos);
+	}
+
+	/**
+	 * 将仍需重试的消息加入时间轮
+	 * 
+	 * @param cinfos
+	 */
+	private void scheduleRetries(List<ConsistencyInfo> cinfos) {
+		if (retryTimer == null) {
+			return;
+		}
+		for (ConsistencyInfo cinfo : cinfos) {
+			if (cinfo.getRetryStatus() == RetryStatus.YES && cinfo.getId() > 0) {
+				retryTimer.add(cinfo.getId(), cinfo.getRetryTime().getTime());
+			}
+		}
+	}
+
+	/**
+	 * 将时间轮中到期的消息交给发送线程池重试, 时间轮线程只负责计时, 不读库也不发送.
+	 * 优先级通道模式下重试排在新消息之后; 线程池已满时由补偿任务重发
+	 * 
+	 * @param ids
+	 * @param count
+	 */
+	private void submitRetries(final long[] ids, final int count) {
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					fireRetries(ids, count);
+				} catch (RuntimeException e) {
+					logger.error("~~~ 时间轮重试出错, 由补偿任务重发, count={} ~~~", count, e);
+				}
+			}
+		};
+		ThreadPoolExecutor executor = sendExecutor != null ? sendExecutor : retryExecutor;
+		try {
+			if (executor == sendExecutor && priorityLanes) {
+				if (sendExecutor.getQueue().size() >= sendQueueCapacity) {
+					throw new RejectedExecutionException("发送队列已满");
+				}
+				task = new PriorityTask(task, Priority.LOW, dispatchSequence.incrementAndGet());
+			}
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			logger.warn("~~~ 重试线程池已满, 消息由补偿任务重发, count={} ~~~", count);
+		}
+	}
+
+	/**
+	 * 重试时间轮中到期的消息
+	 * <p>
+	 * 重新读取最新状态, 只发送仍需重试且已到期的消息. 重试时间被推后的消息在推后时已重新加入时间轮, 旧的到期项直接跳过,
+	 * 同一编号多次加入时间轮也只发送一次. 按行认领补偿时与轮询补偿使用同样的认领和租约, 已被认领的消息跳过
+	 * 
+	 * @param ids
+	 * @param count
+	 */
+	private void fireRetries(long[] ids, int count) {
+		for (int from = 0; from < count && started; from += compensateChunkSize) {
+			int to = Math.min(count, from + compensateChunkSize);
+			List<Long> chunk = new ArrayList<>(to - from);
+			for (int i = from; i < to; i++) {
+				chunk.add(ids[i]);
+			}
+			// 容忍数据库时间精度的舍入
+			Date dueTime = new Date(System.currentTimeMillis() + WHEEL_DUE_TOLERANCE);
+			List<ConsistencyInfo> dues;
+			if (claimCompensate) {
+				dues = consistencyDao.claimDetails(chunk, dueTime, UniqueId.get().toString(), claimLease);
+			} else {
+				dues = new ArrayList<>(chunk.size());
+				for (ConsistencyInfo cinfo : consistencyDao.getDetails(chunk)) {
+					if (cinfo.getRetryStatus() == RetryStatus.YES && cinfo.getRetryTime().before(dueTime)) {
+						dues.add(cinfo);
+					}
+				}
+			}
+			if (!dues.isEmpty()) {
+				sendMessages(dues);
+			}
+		}
+	}
+
+	@Override
+	protected long getMaxRetryOverdue() {
+		List<RetryPolicy> policies = new ArrayList<>(namedRetryPolicies);
+		policies.add(defaultRetryPolicy);
+		policies.addAll(destinationRetryPolicies.values());
+		long maxRetryOverdue = 0;
+		for (RetryPolicy policy : policies) {
+			if (policy instanceof AbstractRetryPolicy) {
+				maxRetryOverdue = Math.max(maxRetryOverdue, ((AbstractRetryPolicy) policy).getMaxRetryOverdue());
+			}
+		}
+		return maxRetryOverdue;
+	}
+
+	/**
+	 * 获得消息的重试策略
+	 * <p>
+	 * 依次使用消息指定的策略、目标地址的策略和缺省策略
+	 * 
+	 * @param cinfo
+	 * @return
+	 */
+	private RetryPolicy getRetryPolicy(ConsistencyInfo cinfo) {
+		RetryPolicy policy = RetryPolicies.getPolicy(cinfo.getRetryPolicy());
+		if (policy == null) {
+			if (StringUtils.hasText(cinfo.getRetryPolicy())) {
+				logger.warn("~~~ 没有注册重试策略[{}], 使用缺省策略, txId={} ~~~", cinfo.getRetryPolicy(), cinfo.getTxId());
+			}
+			policy = destinationRetryPolicies.get(cinfo.getDestination());
+		}
+		return policy != null ? policy : defaultRetryPolicy;
+	}
+
+	/**
+	 * 判断是否超过重试策略的限制, 超过时设置为不再重试
+	 * 
+	 * @param consistencyInfo
+	 * @return
+	 */
+	private boolean isExhausted(ConsistencyInfo consistencyInfo) {
+		if (getRetryPolicy(consistencyInfo).isExhausted(consistencyInfo)) {
+			consistencyInfo.setRetryStatus(RetryStatus.NO);
+			consistencyInfo.setFailCause("超过最大过期时间和重试次数");
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * 记录发送结果, 按重试策略计算下次发送时间
+	 * 
+	 * @param consistencyInfo
+	 * @param failCause
+	 *            失败原因, 为空表示发送成功
+	 * @return 是否发送成功
+	 */
+	private boolean applySendResult(ConsistencyInfo consistencyInfo, String failCause) {
 		boolean successful = false;
 		// 成功
 		if(StringUtils.isEmpty(failCause)) {
@@ -170,54 +1129,172 @@ public class MQConsistencyHandler extends ConsistencyHandlerSupport implements D
 			successful = false;
 		}
 		
-		// 计算下次发送时间，阶梯策略
-		if(retryCount >= 10 && retryCount < 20) {
-			retryInterval = Math.max(retryInterval, 600);
-		} else if(retryCount >= 20 && retryCount < 30) {
-			retryInterval = Math.max(retryInterval, 1800);
-		} else if(retryCount >= 30) {
-			retryInterval = Math.max(retryInterval, 3600);
-		}
-		consistencyInfo.setRetryTime(DateUtils.addSeconds(new Date(), retryInterval));
-		consistencyInfo.setRetryCount(retryCount+1);
-		consistencyDao.updateConsistency(consistencyInfo);
+		// 计算下次发送时间
+		long delay = getRetryPolicy(consistencyInfo).nextDelay(consistencyInfo);
+		consistencyInfo.setRetryTime(new Date(System.currentTimeMillis() + delay));
+		consistencyInfo.setRetryCount(consistencyInfo.getRetryCount() + 1);
 		return successful;
 	}
 	
-	private String doSendMessage(final ConsistencyInfo cinfo) {
+	/**
+	 * 记录未能发送的原因, 按重试策略推迟, 不计入重试次数
+	 * 
+	 * @param consistencyInfo
+	 * @param failCause
+	 */
+	private void applyUnsent(ConsistencyInfo consistencyInfo, String failCause) {
+		consistencyInfo.setFailCause(failCause);
+		long retryTime = System.currentTimeMillis() + getRetryPolicy(consistencyInfo).nextDelay(consistencyInfo);
+		if (breakers != null) {
+			retryTime = Math.max(retryTime, breakers.getRetryAfter());
+		}
+		consistencyInfo.setRetryTime(new Date(retryTime));
+	}
+
+	private String doSendMessage(ConsistencyInfo cinfo) {
+		return doSendMessage(cinfo, new AtomicBoolean());
+	}
+
+	/**
+	 * 发送单条消息
+	 * 
+	 * @param cinfo
+	 * @param connected
+	 *            是否取得了Session, 未取得时为连接失败
+	 * @return 失败原因, 为空表示发送成功
+	 */
+	private String doSendMessage(final ConsistencyInfo cinfo, final AtomicBoolean connected) {
 		logger.info("~~~ 发送一致性消息, txId={}, cinfo={} ~~~", cinfo.getTxId(), cinfo);
+		connected.set(false);
 		try {
 			MessageCreator messageCreator = new MessageCreator() {
 				public Message createMessage(Session session) throws JMSException {
-					TextMessage textMessage = session.createTextMessage();
-					textMessage.setText(cinfo.getContent());
-					textMessage.setStringProperty(MQKeys.TX_ID, cinfo.getTxId());
-					textMessage.setIntProperty(MQKeys.CONFIRM_LEVEL, cinfo.getConfirmLevel().ordinal());
-					// 判断是否需要回复
-					if (cinfo.getConfirmLevel() == ConfirmLevel.EXECUTED) {
-						if(StringUtils.isEmpty(confirmDestination)) {
-							throw new IllegalStateException("没有设置确认地址confirmDestination");
-						}
-						Destination destination = jmsTemplate.getDestinationResolver().resolveDestinationName(session,
-								confirmDestination, false);
-						textMessage.setJMSReplyTo(destination);
-					}
-					return textMessage;
+					connected.set(true);
+					return MQConsistencyHandler.this.createMessage(session, cinfo);
 				}
 			};
 			// Queue
 			jmsTemplate.send(cinfo.getDestination(), messageCreator);
 			logger.info("~~~ 发送一致性消息成功, txId={}, message={} ~~~", cinfo.getTxId(), cinfo);
+			recordSendResult(cinfo.getDestination(), true);
 			return "";
 		} catch (Exception e) {
 			logger.error("~~~ 发送一致性消息出错, txId={}, message={} ~~~", cinfo.getTxId(), cinfo, e);
-			Throwable t = e;
-			if(t instanceof InvocationTargetException){
-				t = ((InvocationTargetException) t).getTargetException();
+			// 目标地址解析失败时已取得Session, 连接可用
+			if (isDestinationFailure(e)) {
+				connected.set(true);
+			}
+			if (connected.get()) {
+				recordSendResult(cinfo.getDestination(), false);
+			} else {
+				recordConnectionFailure();
+			}
+			return getFailCause(e);
+		}
+	}
+
+	/**
+	 * 在同一个事务Session中批量发送
+	 * 
+	 * @param cinfos
+	 * @param connected
+	 *            是否取得了Session, 未取得时为连接失败
+	 * @return 失败原因, 为空表示发送成功
+	 */
+	private String doSendMessages(final List<ConsistencyInfo> cinfos, final AtomicBoolean connected) {
+		logger.info("~~~ 批量发送一致性消息, count={} ~~~", cinfos.size());
+		connected.set(false);
+		try {
+			batchJmsTemplate.execute(new SessionCallback<Object>() {
+				@Override
+				public Object doInJms(Session session) throws JMSException {
+					connected.set(true);
+					Map<String, MessageProducer> producers = new HashMap<>();
+					try {
+						for (ConsistencyInfo cinfo : cinfos) {
+							MessageProducer producer = producers.get(cinfo.getDestination());
+							if (producer == null) {
+								Destination destination = batchJmsTemplate.getDestinationResolver()
+										.resolveDestinationName(session, cinfo.getDestination(), false);
+								producer = session.createProducer(destination);
+								producers.put(cinfo.getDestination(), producer);
+							}
+							producer.send(createMessage(session, cinfo));
+						}
+						JmsUtils.commitIfNecessary(session);
+					} catch (JMSException | RuntimeException e) {
+						JmsUtils.rollbackIfNecessary(session);
+						throw e;
+					} finally {
+						for (MessageProducer producer : producers.values()) {
+							JmsUtils.closeMessageProducer(producer);
+						}
+					}
+					return null;
+				}
+			}, true);
+			logger.info("~~~ 批量发送一致性消息成功, count={} ~~~", cinfos.size());
+			for (ConsistencyInfo cinfo : cinfos) {
+				recordSendResult(cinfo.getDestination(), true);
+			}
+			return "";
+		} catch (Exception e) {
+			logger.error("~~~ 批量发送一致性消息出错, count={} ~~~", cinfos.size(), e);
+			// 连接失败计一次全局失败; 取得Session后的失败由逐条发送按目标地址记录
+			if (!connected.get()) {
+				recordConnectionFailure();
+			}
+			return getFailCause(e);
+		}
+	}
+
+	/**
+	 * 是否为目标地址解析失败
+	 * 
+	 * @param e
+	 * @return
+	 */
+	private static boolean isDestinationFailure(Exception e) {
+		return e instanceof InvalidDestinationException || e instanceof DestinationResolutionException;
+	}
+
+	private Message createMessage(Session session, ConsistencyInfo cinfo) throws JMSException {
+		Message message;
+		if (PayloadCodecs.isBinaryContent(cinfo)) {
+			BytesMessage bytesMessage = session.createBytesMessage();
+			bytesMessage.writeBytes(PayloadCodecs.contentBytes(cinfo));
+			message = bytesMessage;
+		} else {
+			message = session.createTextMessage(cinfo.getContent());
+		}
+		message.setStringProperty(MQKeys.TX_ID, cinfo.getTxId());
+		message.setIntProperty(MQKeys.CONFIRM_LEVEL, cinfo.getConfirmLevel().ordinal());
+		message.setStringProperty(MQKeys.CODEC, PayloadCodecs.getCodec(cinfo.getCodec()).getName());
+		if (cinfo.isCompressed()) {
+			message.setBooleanProperty(MQKeys.COMPRESSED, true);
+		}
+		// 判断是否需要回复
+		if (cinfo.getConfirmLevel() == ConfirmLevel.EXECUTED) {
+			if(StringUtils.isEmpty(confirmDestination)) {
+				throw new IllegalStateException("没有设置确认地址confirmDestination");
 			}
-			String error = t == null ? e.getMessage() : t.getMessage();
-			return error.substring(0, 100);
+			Destination destination = jmsTemplate.getDestinationResolver().resolveDestinationName(session,
+					confirmDestination, false);
+			message.setJMSReplyTo(destination);
 		}
+		return message;
+	}
+
+	private String getFailCause(Exception e) {
+		Throwable t = e;
+		if(t instanceof InvocationTargetException){
+			t = ((InvocationTargetException) t).getTargetException();
+		}
+		String error = t == null ? e.getMessage() : t.getMessage();
+		if (error == null) {
+			error = (t == null ? e : t).getClass().getName();
+		}
+		return error.length() > 100 ? error.substring(0, 100) : error;
 	}
 	
 
@@ -230,7 +1307,7 @@ public class MQConsistencyHandler extends ConsistencyHandlerSupport implements D
 		cinfo.setConfirmDestination(this.confirmDestination);
 		
 		Object bizObj = cobj.getObject();
-		cinfo.setContent(JSON.toJSONString(bizObj));
+		PayloadCodecs.encode(cinfo, payloadCodec, bizObj, compressThreshold);
 		return cinfo;
 	}
 
@@ -245,14 +1322,156 @@ public class MQConsistencyHandler extends ConsistencyHandlerSupport implements D
 			throw new IllegalStateException("没有设置消息队列ConnectionFactory");
 		}
 		if (jmsTemplate == null) {
-			this.jmsTemplate = new JmsTemplate(this.connectionFactory);
+			this.jmsTemplate = new JmsTemplate(createSendConnectionFactory());
+			this.jmsTemplate.setDestinationResolver(new MQDestinationResolver());
 		}
+		this.batchJmsTemplate = new JmsTemplate(jmsTemplate.getConnectionFactory());
+		this.batchJmsTemplate.setDestinationResolver(jmsTemplate.getDestinationResolver());
+		this.batchJmsTemplate.setSessionTransacted(true);
 		if(StringUtils.hasText(confirmDestination)) {
 			createConfirmMessageListener();
 		}
+		if (asyncSend) {
+			// 优先级通道模式下高优先级的发送任务先执行
+			BlockingQueue<Runnable> queue = priorityLanes ? new PriorityBlockingQueue<Runnable>()
+					: new ArrayBlockingQueue<Runnable>(sendQueueCapacity);
+			sendExecutor = new ThreadPoolExecutor(sendThreads, sendThreads, 60, TimeUnit.SECONDS, queue,
+					new CustomizableThreadFactory("consistency-sender-"), new ThreadPoolExecutor.AbortPolicy());
+		}
+		if (deleteOnSent) {
+			sentPurger = new SentConsistencyPurger(consistencyDao);
+			sentPurger.setAsync(asyncDelete);
+			sentPurger.setAuditSampleRate(auditSampleRate);
+			sentPurger.start();
+		}
+		if (circuitBreakerEnabled) {
+			breakers = new CircuitBreakerGroup(breakerFailureThreshold, breakerOpenTimeout, breakerProbeInterval);
+		}
+		if (retryWheel) {
+			// 刻度100ms时三层覆盖约19天, 超过最大重试过期时间
+			retryTimer = new TimingWheel(wheelTickMs, 256, 3, wheelCapacity, new TimingWheel.ExpireListener() {
+				@Override
+				public void onExpire(long[] ids, int count) {
+					submitRetries(ids, count);
+				}
+			});
+			if (sendExecutor == null) {
+				retryExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(64),
+						new CustomizableThreadFactory("consistency-retry-"), new ThreadPoolExecutor.AbortPolicy());
+			}
+			retryTimer.start();
+		}
+		if (compensateThreads > 1) {
+			compensateChunkSize = Math.max(1, Math.min(compensateChunkSize, maxInFlight));
+			inFlight = new Semaphore(Math.max(maxInFlight, compensateChunkSize));
+			compensateExecutor = new ThreadPoolExecutor(compensateThreads, compensateThreads, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(compensateThreads), new CustomizableThreadFactory("consistency-compensator-"),
+					new ThreadPoolExecutor.CallerRunsPolicy());
+		}
 		started = true;
 	}
 
+	private ConnectionFactory createSendConnectionFactory() {
+		if (!cacheConnection || connectionFactory instanceof SingleConnectionFactory) {
+			return connectionFactory;
+		}
+		cachingConnectionFactory = new CachingConnectionFactory(connectionFactory);
+		// 每个补偿线程使用独立Session
+		cachingConnectionFactory.setSessionCacheSize(Math.max(sessionCacheSize, compensateThreads));
+		cachingConnectionFactory.setCacheProducers(true);
+		cachingConnectionFactory.setCacheConsumers(false);
+		// 连接异常时重建连接
+		cachingConnectionFactory.setReconnectOnException(true);
+		cachingConnectionFactory.afterPropertiesSet();
+		return cachingConnectionFactory;
+	}
+
+	private static Priority getPriority(List<ConsistencyInfo> cinfos) {
+		Priority priority = Priority.LOW;
+		for (ConsistencyInfo cinfo : cinfos) {
+			if (cinfo.getPriority() != null && cinfo.getPriority().compareTo(priority) > 0) {
+				priority = cinfo.getPriority();
+			}
+		}
+		return priority;
+	}
+
+	/**
+	 * 带优先级的发送任务, 优先级高的先执行, 同优先级按提交顺序
+	 */
+	private static class PriorityTask implements Runnable, Comparable<PriorityTask> {
+		private final Runnable task;
+		private final Priority priority;
+		private final long sequence;
+
+		PriorityTask(Runnable task, Priority priority, long sequence) {
+			this.task = task;
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public void run() {
+			task.run();
+		}
+
+		@Override
+		public int compareTo(PriorityTask o) {
+			int c = o.priority.compareTo(priority);
+			return c != 0 ? c : (sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1));
+		}
+	}
+
+	/**
+	 * 一次补偿的认领标识
+	 * <p>
+	 * 发送整批消息可能超过认领租约, 分块发送之间过了半个租约时续期, 避免其他节点重新认领正在发送的消息
+	 */
+	private class Claims {
+		private final List<String> tokens = new ArrayList<>();
+
+		private long renewTime = System.currentTimeMillis() + claimLease * 500L;
+
+		synchronized String newToken() {
+			String token = UniqueId.get().toString();
+			tokens.add(token);
+			return token;
+		}
+
+		synchronized void renewIfDue() {
+			long now = System.currentTimeMillis();
+			if (now >= renewTime) {
+				int renewed = consistencyDao.renewClaims(tokens, claimLease);
+				logger.debug("~~~ 续期补偿认领, count={} ~~~", renewed);
+				renewTime = now + claimLease * 500L;
+			}
+		}
+	}
+
+	/**
+	 * 事务内消息汇总, 每个事务只注册一个同步器
+	 */
+	private class TransactionMessages extends TransactionSynchronizationAdapter {
+		// 待保存的消息
+		private final List<ConsistencyInfo> pending = new ArrayList<>();
+		// 待发送的消息
+		private final List<ConsistencyInfo> cinfos = new ArrayList<>();
+
+		@Override
+		public void beforeCommit(boolean readOnly) {
+			// 提交前一次批量写入, 写入失败时事务回滚
+			if (!pending.isEmpty()) {
+				consistencyDao.addConsistencies(pending);
+				pending.clear();
+			}
+		}
+
+		@Override
+		public void afterCommit() {
+			dispatchMessages(cinfos);
+		}
+	}
+
 	private void createConfirmMessageListener() {
 		if(mqMessageListener != null) {
 			return;
@@ -267,7 +1486,14 @@ public class MQConsistencyHandler extends ConsistencyHandlerSupport implements D
 					ConfirmMessage crm = JSON.parseObject(replyJson, ConfirmMessage.class);
 					if(crm.isSuccess()) {
 						String txId = crm.getTxId();
-						ConsistencyInfo cinfo = consistencyDao.getConsistencyByTxId(txId);
+						ConsistencyInfo cinfo;
+						try {
+							cinfo = consistencyDao.getConsistencyByTxId(txId);
+						} catch (EmptyResultDataAccessException e) {
+							// 已归档、清理、随分区删除或转入死信, 确认不再需要记录
+							logger.info("~~~ 一致性消息已不存在, 忽略确认消息, txId={} ~~~", txId);
+							return;
+						}
 						cinfo.setConfirmStatus(ConfirmStatus.EXECUTED);
 						cinfo.setConfirmExecuteTime(crm.getExecuteTime());
 						cinfo.setExecuteHost(crm.getExecuteHost());
@@ -287,9 +1513,42 @@ public class MQConsistencyHandler extends ConsistencyHandlerSupport implements D
 
 	@Override
 	public void destroy() throws Exception {
+		started = false;
+		if (compensateTask instanceof AdaptiveCompensateTask) {
+			((AdaptiveCompensateTask) compensateTask).stop();
+		}
+		if (retryTimer != null) {
+			retryTimer.stop();
+		}
+		if (retryExecutor != null) {
+			retryExecutor.shutdown();
+			if (!retryExecutor.awaitTermination(shutdownTimeout, TimeUnit.SECONDS)) {
+				retryExecutor.shutdownNow();
+			}
+		}
+		if (sendExecutor != null) {
+			// 等待已提交的消息发送完成, 未完成的由补偿任务重发
+			sendExecutor.shutdown();
+			if (!sendExecutor.awaitTermination(shutdownTimeout, TimeUnit.SECONDS)) {
+				List<Runnable> remains = sendExecutor.shutdownNow();
+				logger.warn("~~~ 发送线程池关闭超时, 未发送任务数={} ~~~", remains.size());
+			}
+		}
+		if (compensateExecutor != null) {
+			compensateExecutor.shutdown();
+			if (!compensateExecutor.awaitTermination(shutdownTimeout, TimeUnit.SECONDS)) {
+				compensateExecutor.shutdownNow();
+			}
+		}
+		if (sentPurger != null) {
+			sentPurger.stop();
+		}
 		if(mqMessageListener != null && mqMessageListener.isStarted()) {
 			mqMessageListener.close();
 		}
+		if (cachingConnectionFactory != null) {
+			cachingConnectionFactory.destroy();
+		}
 	}
 
 
@@ -317,6 +1576,345 @@ public class MQConsistencyHandler extends ConsistencyHandlerSupport implements D
 		this.connectionFactory = connectionFactory;
 	}
 
+	/**
+	 * @param asyncSend
+	 *            the asyncSend to set
+	 */
+	public void setAsyncSend(boolean asyncSend) {
+		this.asyncSend = asyncSend;
+	}
+
+	/**
+	 * @param transactionBatch
+	 *            the transactionBatch to set
+	 */
+	public void setTransactionBatch(boolean transactionBatch) {
+		this.transactionBatch = transactionBatch;
+	}
+
+	/**
+	 * 设置是否延迟保存
+	 * <p>
+	 * 开启后事务内的消息在提交前才写入, 事务内无法通过txId查询到这些消息
+	 * 
+	 * @param deferredInsert
+	 *            the deferredInsert to set
+	 */
+	public void setDeferredInsert(boolean deferredInsert) {
+		this.deferredInsert = deferredInsert;
+	}
+
+	/**
+	 * @param sendThreads
+	 *            the sendThreads to set
+	 */
+	public void setSendThreads(int sendThreads) {
+		this.sendThreads = sendThreads;
+	}
+
+	/**
+	 * @param sendQueueCapacity
+	 *            the sendQueueCapacity to set
+	 */
+	public void setSendQueueCapacity(int sendQueueCapacity) {
+		this.sendQueueCapacity = sendQueueCapacity;
+	}
+
+	/**
+	 * @param shutdownTimeout
+	 *            the shutdownTimeout to set
+	 */
+	public void setShutdownTimeout(int shutdownTimeout) {
+		this.shutdownTimeout = shutdownTimeout;
+	}
+
+	/**
+	 * @param compensateThreads
+	 *            the compensateThreads to set
+	 */
+	public void setCompensateThreads(int compensateThreads) {
+		this.compensateThreads = compensateThreads;
+	}
+
+	/**
+	 * @param partitionByDestination
+	 *            the partitionByDestination to set
+	 */
+	public void setPartitionByDestination(boolean partitionByDestination) {
+		this.partitionByDestination = partitionByDestination;
+	}
+
+	/**
+	 * @param compensateChunkSize
+	 *            the compensateChunkSize to set
+	 */
+	public void setCompensateChunkSize(int compensateChunkSize) {
+		this.compensateChunkSize = compensateChunkSize;
+	}
+
+	/**
+	 * @param maxInFlight
+	 *            the maxInFlight to set
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * 设置是否使用时间轮重试
+	 * <p>
+	 * 开启后本节点发送过的消息在重试时间到达时由时间轮直接重试, 轮询补偿只处理超过retryGrace仍未重试的消息
+	 * 
+	 * @param retryWheel
+	 *            the retryWheel to set
+	 */
+	public void setRetryWheel(boolean retryWheel) {
+		this.retryWheel = retryWheel;
+	}
+
+	/**
+	 * @param retryGrace
+	 *            the retryGrace to set
+	 */
+	public void setRetryGrace(int retryGrace) {
+		this.retryGrace = retryGrace;
+	}
+
+	/**
+	 * @param wheelTickMs
+	 *            the wheelTickMs to set
+	 */
+	public void setWheelTickMs(long wheelTickMs) {
+		this.wheelTickMs = wheelTickMs;
+	}
+
+	/**
+	 * @param wheelCapacity
+	 *            the wheelCapacity to set
+	 */
+	public void setWheelCapacity(int wheelCapacity) {
+		this.wheelCapacity = wheelCapacity;
+	}
+
+	/**
+	 * @param circuitBreakerEnabled
+	 *            the circuitBreakerEnabled to set
+	 */
+	public void setCircuitBreakerEnabled(boolean circuitBreakerEnabled) {
+		this.circuitBreakerEnabled = circuitBreakerEnabled;
+	}
+
+	/**
+	 * @param breakerFailureThreshold
+	 *            the breakerFailureThreshold to set
+	 */
+	public void setBreakerFailureThreshold(int breakerFailureThreshold) {
+		this.breakerFailureThreshold = breakerFailureThreshold;
+	}
+
+	/**
+	 * @param breakerOpenTimeout
+	 *            the breakerOpenTimeout to set
+	 */
+	public void setBreakerOpenTimeout(long breakerOpenTimeout) {
+		this.breakerOpenTimeout = breakerOpenTimeout;
+	}
+
+	/**
+	 * @param breakerProbeInterval
+	 *            the breakerProbeInterval to set
+	 */
+	public void setBreakerProbeInterval(long breakerProbeInterval) {
+		this.breakerProbeInterval = breakerProbeInterval;
+	}
+
+	/**
+	 * 获得熔断器状态
+	 * 
+	 * @param destination
+	 *            目标地址, 为空时返回全局熔断器状态
+	 * @return 未启用熔断时返回空
+	 */
+	public CircuitBreaker.State getBreakerState(String destination) {
+		if (breakers == null) {
+			return null;
+		}
+		return destination == null ? breakers.getGlobalBreaker().getState() : breakers.getBreaker(destination).getState();
+	}
+
+	/**
+	 * 设置是否按目标地址公平补偿
+	 * <p>
+	 * 开启后每次补偿按目标地址分配配额, 需要(retry_status, destination, retry_time)索引
+	 * 
+	 * @param fairCompensate
+	 *            the fairCompensate to set
+	 */
+	public void setFairCompensate(boolean fairCompensate) {
+		this.fairCompensate = fairCompensate;
+	}
+
+	/**
+	 * @param destinationWeights
+	 *            目标地址到补偿权重的映射
+	 */
+	public void setDestinationWeights(Map<String, Integer> destinationWeights) {
+		this.destinationWeights = new HashMap<>(destinationWeights);
+	}
+
+	/**
+	 * 设置不再重试的消息是否移入死信表
+	 * <p>
+	 * 开启后超过重试限制的消息连同消息内容移入t_consistency_dead, 可通过{@link #createDeadLetterReplayer()}重放
+	 * 
+	 * @param deadLetter
+	 *            the deadLetter to set
+	 */
+	public void setDeadLetter(boolean deadLetter) {
+		this.deadLetter = deadLetter;
+	}
+
+	/**
+	 * 设置SENT级别的消息发送成功后是否删除
+	 * <p>
+	 * 开启后发送成功的消息不再更新状态, 直接删除一致性信息和消息内容
+	 * 
+	 * @param deleteOnSent
+	 *            the deleteOnSent to set
+	 */
+	public void setDeleteOnSent(boolean deleteOnSent) {
+		this.deleteOnSent = deleteOnSent;
+	}
+
+	/**
+	 * @param asyncDelete
+	 *            the asyncDelete to set
+	 */
+	public void setAsyncDelete(boolean asyncDelete) {
+		this.asyncDelete = asyncDelete;
+	}
+
+	/**
+	 * @param auditSampleRate
+	 *            删除时写入t_consistency_audit的抽样比例, 0为不审计, 1为全部审计
+	 */
+	public void setAuditSampleRate(double auditSampleRate) {
+		this.auditSampleRate = auditSampleRate;
+	}
+
+	/**
+	 * 设置是否使用优先级通道
+	 * <p>
+	 * 开启后补偿按优先级通道份额加载消息, 异步发送时高优先级消息先发送; 需要(retry_status, priority, retry_time)索引
+	 * 
+	 * @param priorityLanes
+	 *            the priorityLanes to set
+	 */
+	public void setPriorityLanes(boolean priorityLanes) {
+		this.priorityLanes = priorityLanes;
+	}
+
+	/**
+	 * @param priorityShares
+	 *            优先级到补偿份额的映射
+	 */
+	public void setPriorityShares(Map<Priority, Integer> priorityShares) {
+		this.priorityShares = new HashMap<>(priorityShares);
+	}
+
+	/**
+	 * 设置全局发送速率, 运行时可调整
+	 * 
+	 * @param rateLimit
+	 *            每秒消息数, 小于等于0时不限流
+	 */
+	public void setRateLimit(double rateLimit) {
+		if (rateLimit <= 0) {
+			globalLimiter = null;
+		} else if (globalLimiter == null) {
+			globalLimiter = new TokenBucket(rateLimit);
+		} else {
+			globalLimiter.setRate(rateLimit);
+		}
+	}
+
+	/**
+	 * 设置目标地址的发送速率, 运行时可调整
+	 * 
+	 * @param destination
+	 * @param rateLimit
+	 *            每秒消息数, 小于等于0时不限流
+	 */
+	public void setDestinationRateLimit(String destination, double rateLimit) {
+		if (rateLimit <= 0) {
+			destinationLimiters.remove(destination);
+			return;
+		}
+		TokenBucket limiter = destinationLimiters.get(destination);
+		if (limiter == null) {
+			limiter = destinationLimiters.putIfAbsent(destination, new TokenBucket(rateLimit));
+		}
+		if (limiter != null) {
+			limiter.setRate(rateLimit);
+		}
+	}
+
+	/**
+	 * @param destinationRateLimits
+	 *            目标地址到每秒消息数的映射
+	 */
+	public void setDestinationRateLimits(Map<String, Double> destinationRateLimits) {
+		for (Map.Entry<String, Double> entry : destinationRateLimits.entrySet()) {
+			setDestinationRateLimit(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * @param defaultRetryPolicy
+	 *            the defaultRetryPolicy to set
+	 */
+	public void setDefaultRetryPolicy(RetryPolicy defaultRetryPolicy) {
+		this.defaultRetryPolicy = defaultRetryPolicy;
+	}
+
+	/**
+	 * 设置按目标地址的重试策略
+	 * 
+	 * @param destinationRetryPolicies
+	 *            目标地址到重试策略的映射
+	 */
+	public void setDestinationRetryPolicies(Map<String, RetryPolicy> destinationRetryPolicies) {
+		this.destinationRetryPolicies = new HashMap<>(destinationRetryPolicies);
+	}
+
+	/**
+	 * 注册可通过名称引用的重试策略, 用于{@link cn.newphy.consis.api.Consistency#retryPolicy()}
+	 * 
+	 * @param retryPolicies
+	 */
+	public void setRetryPolicies(List<RetryPolicy> retryPolicies) {
+		for (RetryPolicy policy : retryPolicies) {
+			RetryPolicies.register(policy);
+		}
+		this.namedRetryPolicies = new ArrayList<>(retryPolicies);
+	}
+
+	/**
+	 * @param cacheConnection
+	 *            the cacheConnection to set
+	 */
+	public void setCacheConnection(boolean cacheConnection) {
+		this.cacheConnection = cacheConnection;
+	}
+
+	/**
+	 * @param sessionCacheSize
+	 *            the sessionCacheSize to set
+	 */
+	public void setSessionCacheSize(int sessionCacheSize) {
+		this.sessionCacheSize = sessionCacheSize;
+	}
+
 	/**
 	 * @return the confirmDestination
 	 */
@@ -1,11 +1,13 @@
 package cn.newphy.consis.mq;
 
-import java.lang.reflect.Type;
 import java.net.InetAddress;
+import java.nio.charset.Charset;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+import javax.jms.BytesMessage;
 import javax.jms.ConnectionFactory;
 import javax.jms.Destination;
 import javax.jms.JMSException;
@@ -24,10 +26,12 @@ import org.springframework.jms.listener.SessionAwareMessageListener;
 import org.springframework.util.Assert;
 
 import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.TypeReference;
+import com.alibaba.fastjson.util.Base64;
 
 import cn.newphy.consis.ConfirmLevel;
 import cn.newphy.consis.ConfirmMessage;
+import cn.newphy.consis.codec.PayloadCodec;
+import cn.newphy.consis.codec.PayloadCodecs;
 import cn.newphy.consis.exception.ConsistencyException;
 import cn.newphy.consis.invoker.ConsistencyInvoker;
 import cn.newphy.consis.invoker.ConsistencyInvokerRegistrar;
@@ -36,6 +40,8 @@ import cn.newphy.consis.mq.MQMessageListener.ReadyCondition;
 public class MQConsistencyInvokerRegistrar implements ConsistencyInvokerRegistrar, InitializingBean, ApplicationListener<ContextRefreshedEvent>, DisposableBean {
 	private Logger logger = LoggerFactory.getLogger(MQConsistencyInvokerRegistrar.class);
 
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
 	private String hostInfo;
 	
 	private ConnectionFactory connectionFactory;
@@ -100,6 +106,45 @@ public class MQConsistencyInvokerRegistrar implements ConsistencyInvokerRegistra
 		this.connectionFactory = connectionFactory;
 	}
 
+	/**
+	 * 注册自定义编码器
+	 * 
+	 * @param payloadCodecs
+	 *            the payloadCodecs to set
+	 */
+	public void setPayloadCodecs(List<PayloadCodec> payloadCodecs) {
+		for (PayloadCodec payloadCodec : payloadCodecs) {
+			PayloadCodecs.register(payloadCodec);
+		}
+	}
+
+	/**
+	 * 读取消息内容, 压缩内容解压后返回
+	 * <p>
+	 * BytesMessage为原始字节; TextMessage为文本, 压缩时为其Base64形式(即数据库中的保存形式)
+	 * 
+	 * @param message
+	 * @return
+	 * @throws JMSException
+	 */
+	public static byte[] readContent(Message message) throws JMSException {
+		boolean compressed = message.getBooleanProperty(MQKeys.COMPRESSED);
+		byte[] data;
+		if (message instanceof BytesMessage) {
+			BytesMessage bytesMessage = (BytesMessage) message;
+			data = new byte[(int) bytesMessage.getBodyLength()];
+			bytesMessage.readBytes(data);
+		} else {
+			String text = ((TextMessage) message).getText();
+			if (text == null) {
+				data = new byte[0];
+			} else {
+				data = compressed ? Base64.decodeFast(text) : text.getBytes(UTF8);
+			}
+		}
+		return compressed ? PayloadCodecs.decompress(data) : data;
+	}
+
 	
 	private class ConsistencyInvokerMessageListener<T> implements SessionAwareMessageListener<Message> {
 		private ConsistencyInvoker<T> consistencyInvoker;
@@ -110,25 +155,22 @@ public class MQConsistencyInvokerRegistrar implements ConsistencyInvokerRegistra
 
 		@Override
 		public void onMessage(Message message, Session session) throws JMSException {
-			if (!(message instanceof TextMessage)) {
-				logger.error("一致性消息只支持TextMessage类型, message={}", message);
+			if (!(message instanceof TextMessage) && !(message instanceof BytesMessage)) {
+				logger.error("一致性消息只支持TextMessage和BytesMessage类型, message={}", message);
 				throw new IllegalStateException("unsupported message type for message type");
 			}
 			
-			TextMessage textMessage = (TextMessage) message;
-			String txId = textMessage.getStringProperty(MQKeys.TX_ID);
-			Integer confirmLevel = textMessage.getIntProperty(MQKeys.CONFIRM_LEVEL);
+			String txId = message.getStringProperty(MQKeys.TX_ID);
+			Integer confirmLevel = message.getIntProperty(MQKeys.CONFIRM_LEVEL);
 			boolean success = false;
 			try {
-				final Type type = consistencyInvoker.getType();
-				String content = textMessage.getText();
-				logger.info("收到一致性消息, txId={}, confirmLevel={}, content={}", txId, confirmLevel, content);
-				T obj = JSON.parseObject(content, new TypeReference<T>(){
-					@Override
-					public Type getType() {
-						return type;
-					}
-				});
+				PayloadCodec codec = PayloadCodecs.getCodec(message.getStringProperty(MQKeys.CODEC));
+				byte[] data = readContent(message);
+				if (logger.isInfoEnabled()) {
+					logger.info("收到一致性消息, txId={}, confirmLevel={}, codec={}, content={}", txId, confirmLevel,
+							codec.getName(), codec.isBinary() ? data.length + " bytes" : PayloadCodecs.toText(data));
+				}
+				T obj = codec.decode(data, consistencyInvoker.getType());
 				consistencyInvoker.invoke(obj);
 				success = true;
 			} catch (Exception e) {
@@ -0,0 +1,61 @@
+package cn.newphy.consis.mq;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+import org.springframework.jms.support.destination.CachingDestinationResolver;
+import org.springframework.jms.support.destination.DestinationResolver;
+import org.springframework.jms.support.destination.DynamicDestinationResolver;
+
+/**
+ * 缓存目标地址解析结果
+ * <p>
+ * 同一名称的队列只解析一次, 避免每次发送都通过Session创建Destination
+ * 
+ * @author Newphy
+ */
+public class MQDestinationResolver implements CachingDestinationResolver {
+
+	private final DestinationResolver targetResolver;
+
+	private final Map<String, Destination> queueCache = new ConcurrentHashMap<>();
+
+	private final Map<String, Destination> topicCache = new ConcurrentHashMap<>();
+
+	public MQDestinationResolver() {
+		this(new DynamicDestinationResolver());
+	}
+
+	public MQDestinationResolver(DestinationResolver targetResolver) {
+		this.targetResolver = targetResolver;
+	}
+
+	@Override
+	public Destination resolveDestinationName(Session session, String destinationName, boolean pubSubDomain)
+			throws JMSException {
+		Map<String, Destination> cache = pubSubDomain ? topicCache : queueCache;
+		Destination destination = cache.get(destinationName);
+		if (destination == null) {
+			destination = targetResolver.resolveDestinationName(session, destinationName, pubSubDomain);
+			cache.put(destinationName, destination);
+		}
+		return destination;
+	}
+
+	@Override
+	public void removeFromCache(String destinationName) {
+		queueCache.remove(destinationName);
+		topicCache.remove(destinationName);
+	}
+
+	@Override
+	public void clearCache() {
+		queueCache.clear();
+		topicCache.clear();
+	}
+
+}
@@ -9,4 +9,6 @@ public interface MQKeys {
 
 	public static final String TX_ID = "_txId";
 	public static final String CONFIRM_LEVEL = "_confirmLevel";
+	public static final String CODEC = "_codec";
+	public static final String COMPRESSED = "_compressed";
 }
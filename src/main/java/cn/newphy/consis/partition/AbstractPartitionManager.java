@@ -0,0 +1,382 @@
+package cn.newphy.consis.partition;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.util.Assert;
+
+import cn.newphy.consis.dao.ConsistencyDao;
+import cn.newphy.consis.dao.ConsistencyDaoImpl;
+import cn.newphy.consis.dao.InlineConsistencyDaoImpl;
+import cn.newphy.consis.dialect.Dialect;
+import cn.newphy.consis.dialect.Dialects;
+import cn.newphy.consis.support.lock.DBDistributedLock;
+import cn.newphy.consis.support.lock.DistributedLock;
+
+/**
+ * 按天分区的分区管理基类
+ * <p>
+ * 每个分区保存一天内创建的消息, 分区名以起始日期yyyyMMdd结尾. 每次轮转:
+ * <ul>
+ * <li>预建从今天起precreateDays天的分区</li>
+ * <li>结束时间早于保留期限且没有待重试消息的分区, 失败消息移入死信表后删除一致性表分区及同名消息表分区</li>
+ * </ul>
+ * 分区中有失败消息时需要死信表t_consistency_dead.
+ * 启动时先执行一次轮转, 保证当天分区存在.
+ *
+ * @author Newphy
+ */
+public abstract class AbstractPartitionManager implements PartitionManager, InitializingBean, DisposableBean {
+	protected Logger logger = LoggerFactory.getLogger(getClass());
+
+	private static final String LOCK_MODULE = "CONSISTENCY_PARTITION";
+
+	private static final String UNFINISHED_SQL = "SELECT COUNT(*) FROM %s WHERE create_time >= ? AND create_time < ? AND retry_status = 1";
+
+	private static final String FAILED_SQL = "SELECT id FROM %s WHERE create_time >= ? AND create_time < ? AND retry_status = 0 "
+			+ "AND fail_cause IS NOT NULL AND fail_cause <> ''";
+
+	// 每批移入死信表的条数
+	private static final int DEAD_BATCH_SIZE = 500;
+
+	protected JdbcTemplate jdbcTemplate;
+
+	private DataSource dataSource;
+
+	// 数据库方言, 为空时根据数据源识别
+	private Dialect dialect;
+
+	// 一致性信息DAO, 用于将失败消息移入死信表
+	private ConsistencyDao consistencyDao;
+
+	// 分布式锁
+	private DistributedLock distributedLock;
+
+	private TaskScheduler taskScheduler;
+
+	// 自行创建的调度器, 销毁时关闭
+	private ThreadPoolTaskScheduler ownedScheduler;
+
+	private ScheduledFuture<?> future;
+
+	// 一致性表
+	private String consistencyTable = "t_consistency";
+
+	// 消息表, 为空时不管理, 消息内容单表存储时设置为空
+	private String messageTable = "t_consistency_message";
+
+	// 预建天数
+	private int precreateDays = 7;
+
+	// 保留天数
+	private int retentionDays = 14;
+
+	// 轮转间隔(毫秒)
+	private long interval = 3600000;
+
+	public AbstractPartitionManager(DataSource dataSource) {
+		Assert.notNull(dataSource, "分区管理未设置数据源");
+		this.dataSource = dataSource;
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		if (dialect == null && (distributedLock == null || consistencyDao == null)) {
+			dialect = Dialects.detect(dataSource);
+		}
+		if (distributedLock == null) {
+			distributedLock = new DBDistributedLock(dataSource, dialect);
+		}
+		if (consistencyDao == null) {
+			consistencyDao = messageTable != null ? new ConsistencyDaoImpl(dataSource, null, dialect)
+					: new InlineConsistencyDaoImpl(dataSource, null, dialect);
+		}
+		if (taskScheduler == null) {
+			ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+			scheduler.setThreadNamePrefix("consistency-partition-");
+			scheduler.setDaemon(true);
+			scheduler.initialize();
+			ownedScheduler = scheduler;
+			taskScheduler = scheduler;
+		}
+		execute();
+		future = taskScheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				execute();
+			}
+		}, new Date(System.currentTimeMillis() + interval), interval);
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		if (future != null) {
+			future.cancel(false);
+		}
+		if (ownedScheduler != null) {
+			ownedScheduler.shutdown();
+		}
+	}
+
+	private void execute() {
+		try {
+			String token = distributedLock.lock(LOCK_MODULE);
+			if (token == null) {
+				// 其他节点正在轮转
+				return;
+			}
+			try {
+				rotate();
+			} finally {
+				distributedLock.unlock(token);
+			}
+		} catch (RuntimeException e) {
+			logger.error("~~~ consistency partition rotate error ~~~", e);
+		}
+	}
+
+	@Override
+	public void rotate() {
+		Date today = truncate(new Date());
+		createPartitions(consistencyTable, today);
+		if (messageTable != null) {
+			createPartitions(messageTable, today);
+		}
+		Date expire = addDays(today, -retentionDays);
+		List<Date> starts = listPartitionStarts(consistencyTable);
+		Date dropBefore = null;
+		for (Date start : starts) {
+			Date end = addDays(start, 1);
+			if (end.after(expire)) {
+				break;
+			}
+			int unfinished = jdbcTemplate.queryForObject(String.format(UNFINISHED_SQL, consistencyTable),
+					new Object[] { start, end }, Integer.class);
+			if (unfinished > 0) {
+				// 之后的分区保留, 使消息表分区的删除范围不超过一致性表
+				logger.warn("~~~ 分区仍有未完成消息, 暂不删除, table={}, partition={}, count={} ~~~", consistencyTable,
+						partitionName(consistencyTable, start), unfinished);
+				break;
+			}
+			moveFailedToDead(start, end);
+			dropPartition(consistencyTable, partitionName(consistencyTable, start));
+			logger.info("~~~ 删除过期分区, table={}, partition={} ~~~", consistencyTable, partitionName(consistencyTable, start));
+			dropBefore = end;
+		}
+		// 消息在一致性信息之后写入, 早于已删除分区结束时间的消息分区对应的一致性信息都已删除
+		if (messageTable != null && dropBefore != null) {
+			for (Date start : listPartitionStarts(messageTable)) {
+				if (!start.before(dropBefore)) {
+					break;
+				}
+				dropPartition(messageTable, partitionName(messageTable, start));
+			}
+		}
+	}
+
+	/**
+	 * 将分区中的失败消息移入死信表, 失败消息不阻止分区删除
+	 *
+	 * @param start
+	 * @param end
+	 */
+	private void moveFailedToDead(Date start, Date end) {
+		List<Long> ids = jdbcTemplate.queryForList(String.format(FAILED_SQL, consistencyTable), new Object[] { start, end },
+				Long.class);
+		for (int from = 0; from < ids.size(); from += DEAD_BATCH_SIZE) {
+			List<Long> batch = ids.subList(from, Math.min(ids.size(), from + DEAD_BATCH_SIZE));
+			consistencyDao.moveToDead(consistencyDao.getDetails(batch));
+		}
+		if (!ids.isEmpty()) {
+			logger.info("~~~ 失败消息移入死信表, table={}, partition={}, count={} ~~~", consistencyTable,
+					partitionName(consistencyTable, start), ids.size());
+		}
+	}
+
+	private void createPartitions(String table, Date today) {
+		Set<Date> existing = new HashSet<>(listPartitionStarts(table));
+		for (int i = 0; i < precreateDays; i++) {
+			Date start = addDays(today, i);
+			if (!existing.contains(start)) {
+				createPartition(table, partitionName(table, start), start, addDays(start, 1));
+				logger.info("~~~ 预建分区, table={}, partition={} ~~~", table, partitionName(table, start));
+			}
+		}
+	}
+
+	/**
+	 * 已有分区的起始日期, 按日期排序, 名称不符合规则的分区忽略
+	 *
+	 * @param table
+	 * @return
+	 */
+	protected List<Date> listPartitionStarts(String table) {
+		List<Date> starts = new ArrayList<>();
+		SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd");
+		format.setLenient(false);
+		for (String name : listPartitions(table)) {
+			if (name.length() < 8) {
+				continue;
+			}
+			try {
+				starts.add(format.parse(name.substring(name.length() - 8)));
+			} catch (ParseException e) {
+				// 非按天分区
+			}
+		}
+		Collections.sort(starts);
+		return starts;
+	}
+
+	/**
+	 * 分区名称
+	 *
+	 * @param table
+	 * @param start
+	 *            起始日期
+	 * @return
+	 */
+	protected String partitionName(String table, Date start) {
+		return "p" + new SimpleDateFormat("yyyyMMdd").format(start);
+	}
+
+	/**
+	 * 列出表的分区名称
+	 *
+	 * @param table
+	 * @return
+	 */
+	protected abstract List<String> listPartitions(String table);
+
+	/**
+	 * 创建分区
+	 *
+	 * @param table
+	 * @param name
+	 * @param start
+	 *            起始时间(含)
+	 * @param end
+	 *            结束时间(不含)
+	 */
+	protected abstract void createPartition(String table, String name, Date start, Date end);
+
+	/**
+	 * 删除分区
+	 *
+	 * @param table
+	 * @param name
+	 */
+	protected abstract void dropPartition(String table, String name);
+
+	protected static String formatDate(Date date) {
+		return new SimpleDateFormat("yyyy-MM-dd").format(date);
+	}
+
+	private static Date truncate(Date date) {
+		Calendar cal = Calendar.getInstance();
+		cal.setTime(date);
+		cal.set(Calendar.HOUR_OF_DAY, 0);
+		cal.set(Calendar.MINUTE, 0);
+		cal.set(Calendar.SECOND, 0);
+		cal.set(Calendar.MILLISECOND, 0);
+		return cal.getTime();
+	}
+
+	private static Date addDays(Date date, int days) {
+		Calendar cal = Calendar.getInstance();
+		cal.setTime(date);
+		cal.add(Calendar.DAY_OF_MONTH, days);
+		return cal.getTime();
+	}
+
+	/**
+	 * @param distributedLock
+	 *            the distributedLock to set
+	 */
+	public void setDistributedLock(DistributedLock distributedLock) {
+		this.distributedLock = distributedLock;
+	}
+
+	/**
+	 * @param dialect
+	 *            the dialect to set
+	 */
+	public void setDialect(Dialect dialect) {
+		this.dialect = dialect;
+	}
+
+	/**
+	 * @param consistencyDao
+	 *            the consistencyDao to set
+	 */
+	public void setConsistencyDao(ConsistencyDao consistencyDao) {
+		this.consistencyDao = consistencyDao;
+	}
+
+	/**
+	 * @param taskScheduler
+	 *            the taskScheduler to set
+	 */
+	public void setTaskScheduler(TaskScheduler taskScheduler) {
+		this.taskScheduler = taskScheduler;
+	}
+
+	/**
+	 * @param consistencyTable
+	 *            the consistencyTable to set
+	 */
+	public void setConsistencyTable(String consistencyTable) {
+		this.consistencyTable = consistencyTable;
+	}
+
+	/**
+	 * @param messageTable
+	 *            the messageTable to set
+	 */
+	public void setMessageTable(String messageTable) {
+		this.messageTable = messageTable;
+	}
+
+	/**
+	 * @param precreateDays
+	 *            the precreateDays to set
+	 */
+	public void setPrecreateDays(int precreateDays) {
+		this.precreateDays = precreateDays;
+	}
+
+	/**
+	 * @param retentionDays
+	 *            the retentionDays to set
+	 */
+	public void setRetentionDays(int retentionDays) {
+		this.retentionDays = retentionDays;
+	}
+
+	/**
+	 * @param interval
+	 *            the interval to set
+	 */
+	public void setInterval(long interval) {
+		this.interval = interval;
+	}
+
+}
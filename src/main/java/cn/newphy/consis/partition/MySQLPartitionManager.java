@@ -0,0 +1,48 @@
+package cn.newphy.consis.partition;
+
+import java.util.Date;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+/**
+ * MySQL分区管理
+ * <p>
+ * 表需按create_time做RANGE COLUMNS分区, 且不能有MAXVALUE分区, 分区键需包含在主键中:
+ *
+ * <pre>
+ * ALTER TABLE t_consistency DROP PRIMARY KEY, ADD PRIMARY KEY (id, create_time)
+ *     PARTITION BY RANGE COLUMNS(create_time) (PARTITION p20161031 VALUES LESS THAN ('2016-11-01'));
+ * </pre>
+ *
+ * 当前时间超出最后一个分区时写入会失败, 预建天数需覆盖轮转任务可能停止的时间.
+ * 分区表上tx_id不能建唯一索引, 索引使用{@link cn.newphy.consis.dialect.AbstractDialect#recommendedIndexes(boolean)}的分区版本.
+ *
+ * @author Newphy
+ */
+public class MySQLPartitionManager extends AbstractPartitionManager {
+
+	private static final String LIST_PARTITIONS_SQL = "SELECT partition_name FROM information_schema.partitions "
+			+ "WHERE table_schema = DATABASE() AND table_name = ? AND partition_name IS NOT NULL";
+
+	public MySQLPartitionManager(DataSource dataSource) {
+		super(dataSource);
+	}
+
+	@Override
+	protected List<String> listPartitions(String table) {
+		return jdbcTemplate.queryForList(LIST_PARTITIONS_SQL, new Object[] { table }, String.class);
+	}
+
+	@Override
+	protected void createPartition(String table, String name, Date start, Date end) {
+		jdbcTemplate.execute("ALTER TABLE " + table + " ADD PARTITION (PARTITION " + name + " VALUES LESS THAN ('"
+				+ formatDate(end) + "'))");
+	}
+
+	@Override
+	protected void dropPartition(String table, String name) {
+		jdbcTemplate.execute("ALTER TABLE " + table + " DROP PARTITION " + name);
+	}
+
+}
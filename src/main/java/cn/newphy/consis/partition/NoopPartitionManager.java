@@ -0,0 +1,15 @@
+package cn.newphy.consis.partition;
+
+/**
+ * 不做分区管理, 用于H2等不分区的数据库
+ *
+ * @author Newphy
+ */
+public class NoopPartitionManager implements PartitionManager {
+
+	@Override
+	public void rotate() {
+		// 不分区
+	}
+
+}
@@ -0,0 +1,17 @@
+package cn.newphy.consis.partition;
+
+/**
+ * 一致性表分区管理
+ * <p>
+ * t_consistency和t_consistency_message按创建时间分区, 定时预建后续分区并删除已全部完成的过期分区,
+ * 删除分区只修改元数据, 不逐行删除
+ *
+ * @author Newphy
+ */
+public interface PartitionManager {
+
+	/**
+	 * 预建后续分区并删除已完成的过期分区
+	 */
+	void rotate();
+}
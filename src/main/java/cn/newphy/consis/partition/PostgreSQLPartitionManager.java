@@ -0,0 +1,53 @@
+package cn.newphy.consis.partition;
+
+import java.util.Date;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+/**
+ * PostgreSQL分区管理
+ * <p>
+ * 表需声明为按create_time范围分区, 每个分区是一张子表, 名称为"表名_pyyyyMMdd":
+ *
+ * <pre>
+ * CREATE TABLE t_consistency (...) PARTITION BY RANGE (create_time);
+ * </pre>
+ *
+ * 删除前先从父表分离, 分离后删除子表不阻塞父表上的查询.
+ * 分区表上tx_id不能建唯一索引, 索引使用{@link cn.newphy.consis.dialect.AbstractDialect#recommendedIndexes(boolean)}的分区版本.
+ *
+ * @author Newphy
+ */
+public class PostgreSQLPartitionManager extends AbstractPartitionManager {
+
+	private static final String LIST_PARTITIONS_SQL = "SELECT c.relname FROM pg_inherits i "
+			+ "JOIN pg_class c ON c.oid = i.inhrelid JOIN pg_class p ON p.oid = i.inhparent WHERE p.relname = ?";
+
+	public PostgreSQLPartitionManager(DataSource dataSource) {
+		super(dataSource);
+	}
+
+	@Override
+	protected String partitionName(String table, Date start) {
+		return table + "_" + super.partitionName(table, start);
+	}
+
+	@Override
+	protected List<String> listPartitions(String table) {
+		return jdbcTemplate.queryForList(LIST_PARTITIONS_SQL, new Object[] { table }, String.class);
+	}
+
+	@Override
+	protected void createPartition(String table, String name, Date start, Date end) {
+		jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + name + " PARTITION OF " + table + " FOR VALUES FROM ('"
+				+ formatDate(start) + "') TO ('" + formatDate(end) + "')");
+	}
+
+	@Override
+	protected void dropPartition(String table, String name) {
+		jdbcTemplate.execute("ALTER TABLE " + table + " DETACH PARTITION " + name);
+		jdbcTemplate.execute("DROP TABLE " + name);
+	}
+
+}
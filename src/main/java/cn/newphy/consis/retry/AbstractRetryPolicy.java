@@ -0,0 +1,98 @@
+package cn.newphy.consis.retry;
+
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+
+import cn.newphy.consis.ConsistencyInfo;
+
+/**
+ * 重试策略基类
+ * <p>
+ * 按最大重试次数和最大重试期限判断是否不再重试, 并提供随机抖动
+ *
+ * @author Newphy
+ */
+public abstract class AbstractRetryPolicy implements RetryPolicy {
+
+	// 最大重试次数
+	private int maxRetryCount = 100;
+
+	// 最大重试期限(毫秒), 自首次发送起
+	private long maxRetryOverdue = 10 * 24 * 3600 * 1000L;
+
+	// 抖动比例, 间隔在[delay * (1 - jitter), delay]之间随机
+	private double jitter = 0;
+
+	@Override
+	public boolean isExhausted(ConsistencyInfo cinfo) {
+		Date firstTime = cinfo.getFirstSentTime();
+		return cinfo.getRetryCount() >= maxRetryCount
+				|| (firstTime != null && System.currentTimeMillis() - firstTime.getTime() > maxRetryOverdue);
+	}
+
+	@Override
+	public long nextDelay(ConsistencyInfo cinfo) {
+		long delay = baseDelay(cinfo);
+		if (jitter > 0 && delay > 0) {
+			delay -= (long) (delay * jitter * ThreadLocalRandom.current().nextDouble());
+		}
+		return delay;
+	}
+
+	/**
+	 * 计算未加抖动的重试间隔
+	 * 
+	 * @param cinfo
+	 * @return 间隔(毫秒)
+	 */
+	protected abstract long baseDelay(ConsistencyInfo cinfo);
+
+	/**
+	 * @return the maxRetryCount
+	 */
+	public int getMaxRetryCount() {
+		return maxRetryCount;
+	}
+
+	/**
+	 * @param maxRetryCount
+	 *            the maxRetryCount to set
+	 */
+	public void setMaxRetryCount(int maxRetryCount) {
+		this.maxRetryCount = maxRetryCount;
+	}
+
+	/**
+	 * @return the maxRetryOverdue
+	 */
+	public long getMaxRetryOverdue() {
+		return maxRetryOverdue;
+	}
+
+	/**
+	 * @param maxRetryOverdue
+	 *            the maxRetryOverdue to set
+	 */
+	public void setMaxRetryOverdue(long maxRetryOverdue) {
+		this.maxRetryOverdue = maxRetryOverdue;
+	}
+
+	/**
+	 * @return the jitter
+	 */
+	public double getJitter() {
+		return jitter;
+	}
+
+	/**
+	 * @param jitter
+	 *            the jitter to set, 0到1之间
+	 */
+	public void setJitter(double jitter) {
+		if (jitter < 0 || jitter > 1) {
+			throw new IllegalArgumentException("jitter必须在0到1之间");
+		}
+		this.jitter = jitter;
+	}
+
+}
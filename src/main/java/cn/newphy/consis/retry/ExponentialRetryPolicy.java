@@ -0,0 +1,66 @@
+package cn.newphy.consis.retry;
+
+import cn.newphy.consis.ConsistencyInfo;
+
+/**
+ * 指数退避重试策略
+ * <p>
+ * 间隔为initialInterval * multiplier^retryCount, 不超过maxInterval, 缺省抖动一半间隔,
+ * 同一时间失败的消息分散到不同时间重试.
+ *
+ * @author Newphy
+ */
+public class ExponentialRetryPolicy extends AbstractRetryPolicy {
+
+	public static final String NAME = "exponential";
+
+	// 初始间隔(秒), 小于等于0时使用消息的重试间隔
+	private int initialInterval = 0;
+
+	// 间隔倍数
+	private double multiplier = 2;
+
+	// 最大间隔(秒)
+	private int maxInterval = 3600;
+
+	public ExponentialRetryPolicy() {
+		setJitter(0.5);
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	protected long baseDelay(ConsistencyInfo cinfo) {
+		double interval = initialInterval > 0 ? initialInterval : cinfo.getRetryInterval();
+		interval *= Math.pow(multiplier, cinfo.getRetryCount());
+		return (long) (Math.min(interval, maxInterval) * 1000);
+	}
+
+	/**
+	 * @param initialInterval
+	 *            the initialInterval to set
+	 */
+	public void setInitialInterval(int initialInterval) {
+		this.initialInterval = initialInterval;
+	}
+
+	/**
+	 * @param multiplier
+	 *            the multiplier to set
+	 */
+	public void setMultiplier(double multiplier) {
+		this.multiplier = multiplier;
+	}
+
+	/**
+	 * @param maxInterval
+	 *            the maxInterval to set
+	 */
+	public void setMaxInterval(int maxInterval) {
+		this.maxInterval = maxInterval;
+	}
+
+}
@@ -0,0 +1,41 @@
+package cn.newphy.consis.retry;
+
+import cn.newphy.consis.ConsistencyInfo;
+
+/**
+ * 固定间隔重试策略
+ * <p>
+ * 未设置间隔时使用消息的重试间隔
+ *
+ * @author Newphy
+ */
+public class FixedRetryPolicy extends AbstractRetryPolicy {
+
+	public static final String NAME = "fixed";
+
+	// 重试间隔(秒), 小于等于0时使用消息的重试间隔
+	private int interval = 0;
+
+	public FixedRetryPolicy() {
+		setJitter(0.1);
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	protected long baseDelay(ConsistencyInfo cinfo) {
+		return (interval > 0 ? interval : cinfo.getRetryInterval()) * 1000L;
+	}
+
+	/**
+	 * @param interval
+	 *            the interval to set
+	 */
+	public void setInterval(int interval) {
+		this.interval = interval;
+	}
+
+}
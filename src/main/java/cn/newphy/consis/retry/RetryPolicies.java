@@ -0,0 +1,47 @@
+package cn.newphy.consis.retry;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.util.StringUtils;
+
+/**
+ * 重试策略注册表
+ * <p>
+ * 内置阶梯、固定间隔和指数退避策略, 同名注册会覆盖内置策略
+ *
+ * @author Newphy
+ */
+public abstract class RetryPolicies {
+
+	private static final Map<String, RetryPolicy> policies = new ConcurrentHashMap<>();
+
+	static {
+		register(new TieredRetryPolicy());
+		register(new FixedRetryPolicy());
+		register(new ExponentialRetryPolicy());
+	}
+
+	/**
+	 * 注册重试策略
+	 * 
+	 * @param policy
+	 */
+	public static void register(RetryPolicy policy) {
+		policies.put(policy.getName(), policy);
+	}
+
+	/**
+	 * 获得重试策略
+	 * 
+	 * @param name
+	 * @return 未注册时返回null
+	 */
+	public static RetryPolicy getPolicy(String name) {
+		if (!StringUtils.hasText(name)) {
+			return null;
+		}
+		return policies.get(name);
+	}
+
+}
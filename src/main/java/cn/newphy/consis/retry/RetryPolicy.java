@@ -0,0 +1,37 @@
+package cn.newphy.consis.retry;
+
+import cn.newphy.consis.ConsistencyInfo;
+
+/**
+ * 重试策略
+ * <p>
+ * 决定消息何时不再重试以及下次重试的间隔, 按名称注册到{@link RetryPolicies}, 名称随消息保存
+ *
+ * @author Newphy
+ */
+public interface RetryPolicy {
+
+	/**
+	 * 策略名称
+	 * 
+	 * @return
+	 */
+	String getName();
+
+	/**
+	 * 是否超过重试限制, 超过后不再发送
+	 * 
+	 * @param cinfo
+	 * @return
+	 */
+	boolean isExhausted(ConsistencyInfo cinfo);
+
+	/**
+	 * 计算下次重试间隔
+	 * 
+	 * @param cinfo
+	 *            本次发送后的消息, retryCount为本次之前的发送次数
+	 * @return 间隔(毫秒)
+	 */
+	long nextDelay(ConsistencyInfo cinfo);
+}
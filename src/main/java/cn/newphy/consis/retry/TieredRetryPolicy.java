@@ -0,0 +1,40 @@
+package cn.newphy.consis.retry;
+
+import cn.newphy.consis.ConsistencyInfo;
+
+/**
+ * 阶梯重试策略
+ * <p>
+ * <ul>
+ * <li>第一阶段: < 10, 按设置时间发送</li>
+ * <li>第二阶段: 10<= retryCount < 20, 最小600s间隔</li>
+ * <li>第三阶段: 20 <= retryCount <30, 最小1800s间隔</li>
+ * <li>第四阶段: 30 <= retryCount <MaxRetryCount, 最小3600s间隔</li>
+ * </ul>
+ *
+ * @author Newphy
+ */
+public class TieredRetryPolicy extends AbstractRetryPolicy {
+
+	public static final String NAME = "tiered";
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	protected long baseDelay(ConsistencyInfo cinfo) {
+		int retryCount = cinfo.getRetryCount();
+		int retryInterval = cinfo.getRetryInterval();
+		if (retryCount >= 10 && retryCount < 20) {
+			retryInterval = Math.max(retryInterval, 600);
+		} else if (retryCount >= 20 && retryCount < 30) {
+			retryInterval = Math.max(retryInterval, 1800);
+		} else if (retryCount >= 30) {
+			retryInterval = Math.max(retryInterval, 3600);
+		}
+		return retryInterval * 1000L;
+	}
+
+}
@@ -0,0 +1,126 @@
+package cn.newphy.consis.support.breaker;
+
+/**
+ * 熔断器
+ * <p>
+ * 连续失败达到阈值后打开, 打开期间拒绝请求; 打开超时后进入半开状态, 每个探测间隔放行一次探测请求,
+ * 探测成功后关闭, 失败后重新打开.
+ *
+ * @author Newphy
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final String name;
+
+	// 打开熔断器的连续失败次数
+	private final int failureThreshold;
+
+	// 打开持续时间(毫秒)
+	private final long openTimeout;
+
+	// 半开状态探测间隔(毫秒)
+	private final long probeInterval;
+
+	private State state = State.CLOSED;
+
+	private int failures;
+
+	private long openUntil;
+
+	private long nextProbeTime;
+
+	public CircuitBreaker(String name, int failureThreshold, long openTimeout, long probeInterval) {
+		this.name = name;
+		this.failureThreshold = failureThreshold;
+		this.openTimeout = openTimeout;
+		this.probeInterval = probeInterval;
+	}
+
+	/**
+	 * 是否放行请求
+	 * 
+	 * @return
+	 */
+	public synchronized boolean allowRequest() {
+		if (state == State.CLOSED) {
+			return true;
+		}
+		long now = currentTimeMillis();
+		if (state == State.OPEN) {
+			if (now < openUntil) {
+				return false;
+			}
+			state = State.HALF_OPEN;
+			nextProbeTime = now;
+		}
+		if (now >= nextProbeTime) {
+			nextProbeTime = now + probeInterval;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * 记录成功
+	 */
+	public synchronized void onSuccess() {
+		failures = 0;
+		state = State.CLOSED;
+	}
+
+	/**
+	 * 记录失败
+	 */
+	public synchronized void onFailure() {
+		failures++;
+		if (state == State.HALF_OPEN || failures >= failureThreshold) {
+			state = State.OPEN;
+			openUntil = currentTimeMillis() + openTimeout;
+		}
+	}
+
+	/**
+	 * 获得熔断器状态
+	 * 
+	 * @return
+	 */
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * 被拒绝的请求可以重试的时间
+	 * 
+	 * @return
+	 */
+	public synchronized long getRetryAfter() {
+		long now = currentTimeMillis();
+		return state == State.OPEN ? Math.max(now, openUntil) : Math.max(now, nextProbeTime);
+	}
+
+	/**
+	 * 当前时间(毫秒)
+	 * 
+	 * @return
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return "CircuitBreaker[" + name + ", " + getState() + "]";
+	}
+
+}
@@ -0,0 +1,118 @@
+package cn.newphy.consis.support.breaker;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 发送熔断器组
+ * <p>
+ * 全局熔断器只记录连接失败, 连接不可用时拒绝所有发送; 目标地址熔断器记录取得连接后的发送失败,
+ * 单个目标地址熔断不影响其他目标地址. 发送成功或取得连接都说明连接可用, 全局熔断器恢复.
+ *
+ * @author Newphy
+ */
+public class CircuitBreakerGroup {
+
+	private final int failureThreshold;
+
+	private final long openTimeout;
+
+	private final long probeInterval;
+
+	private final CircuitBreaker globalBreaker;
+
+	private final ConcurrentMap<String, CircuitBreaker> destinationBreakers = new ConcurrentHashMap<>();
+
+	public CircuitBreakerGroup(int failureThreshold, long openTimeout, long probeInterval) {
+		this.failureThreshold = failureThreshold;
+		this.openTimeout = openTimeout;
+		this.probeInterval = probeInterval;
+		this.globalBreaker = createBreaker("global");
+	}
+
+	/**
+	 * 全局熔断器和目标地址熔断器是否都放行
+	 * 
+	 * @param destination
+	 * @return
+	 */
+	public boolean allowRequest(String destination) {
+		return globalBreaker.allowRequest() && getBreaker(destination).allowRequest();
+	}
+
+	/**
+	 * 记录发送成功
+	 * 
+	 * @param destination
+	 */
+	public void onSuccess(String destination) {
+		globalBreaker.onSuccess();
+		getBreaker(destination).onSuccess();
+	}
+
+	/**
+	 * 记录取得连接后的发送失败, 只计入目标地址熔断器
+	 * 
+	 * @param destination
+	 */
+	public void onFailure(String destination) {
+		globalBreaker.onSuccess();
+		getBreaker(destination).onFailure();
+	}
+
+	/**
+	 * 记录连接失败, 只计入全局熔断器
+	 */
+	public void onConnectionFailure() {
+		globalBreaker.onFailure();
+	}
+
+	/**
+	 * 全局熔断器拒绝的请求可以重试的时间
+	 * 
+	 * @return
+	 */
+	public long getRetryAfter() {
+		return globalBreaker.getRetryAfter();
+	}
+
+	/**
+	 * 发往目标地址的请求可以重试的时间
+	 * 
+	 * @param destination
+	 * @return
+	 */
+	public long getRetryAfter(String destination) {
+		return Math.max(globalBreaker.getRetryAfter(), getBreaker(destination).getRetryAfter());
+	}
+
+	/**
+	 * @return the globalBreaker
+	 */
+	public CircuitBreaker getGlobalBreaker() {
+		return globalBreaker;
+	}
+
+	/**
+	 * 获得目标地址的熔断器, 不存在时创建
+	 * 
+	 * @param destination
+	 * @return
+	 */
+	public CircuitBreaker getBreaker(String destination) {
+		CircuitBreaker breaker = destinationBreakers.get(destination);
+		if (breaker == null) {
+			breaker = createBreaker(destination);
+			CircuitBreaker existing = destinationBreakers.putIfAbsent(destination, breaker);
+			if (existing != null) {
+				breaker = existing;
+			}
+		}
+		return breaker;
+	}
+
+	protected CircuitBreaker createBreaker(String name) {
+		return new CircuitBreaker(name, failureThreshold, openTimeout, probeInterval);
+	}
+
+}
@@ -0,0 +1,17 @@
+package cn.newphy.consis.support.id;
+
+/**
+ * 主键生成器
+ * 
+ * @author Newphy
+ */
+public interface IdGenerator {
+
+	/**
+	 * 生成下一个编号
+	 * 
+	 * @return
+	 */
+	long nextId();
+
+}
@@ -0,0 +1,123 @@
+package cn.newphy.consis.support.id;
+
+import cn.newphy.consis.support.UniqueId;
+
+/**
+ * 按时间有序的64位主键生成器
+ * <p>
+ * 沿用{@link UniqueId}的时间/机器/计数布局, 压缩到64位:
+ * <table border="1">
+ * <tr>
+ * <td>1</td><td>41</td><td>10</td><td>12</td>
+ * </tr>
+ * <tr>
+ * <td>符号位</td><td>毫秒时间(自2016-01-01)</td><td>节点</td><td>序列</td>
+ * </tr>
+ * </table>
+ * <p>
+ * 节点编号只有10位, 由机器和进程标识散列得到时集群中容易冲突, 因此必须显式指定: 通过构造参数,
+ * 或系统属性{@value #NODE_ID_PROPERTY}/环境变量{@value #NODE_ID_ENV}. 未指定时创建失败.
+ *
+ * @author Newphy
+ */
+public class TimeBasedIdGenerator implements IdGenerator {
+
+	/**
+	 * 节点编号系统属性
+	 */
+	public static final String NODE_ID_PROPERTY = "consistency.nodeId";
+
+	/**
+	 * 节点编号环境变量
+	 */
+	public static final String NODE_ID_ENV = "CONSISTENCY_NODE_ID";
+
+	// 2016-01-01 00:00:00 UTC
+	private static final long EPOCH = 1451606400000L;
+
+	private static final int NODE_BITS = 10;
+	private static final int SEQUENCE_BITS = 12;
+
+	private static final long MAX_NODE = (1L << NODE_BITS) - 1;
+	private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+	private static final int NODE_SHIFT = SEQUENCE_BITS;
+	private static final int TIMESTAMP_SHIFT = SEQUENCE_BITS + NODE_BITS;
+
+	private final long nodeId;
+
+	private long lastTimestamp = -1L;
+
+	private long sequence = 0L;
+
+	/**
+	 * 使用系统属性或环境变量指定的节点编号
+	 * 
+	 * @throws IllegalStateException
+	 *             未指定节点编号
+	 */
+	public TimeBasedIdGenerator() {
+		this(configuredNodeId());
+	}
+
+	public TimeBasedIdGenerator(long nodeId) {
+		if (nodeId < 0 || nodeId > MAX_NODE) {
+			throw new IllegalArgumentException("nodeId必须在0到" + MAX_NODE + "之间");
+		}
+		this.nodeId = nodeId;
+	}
+
+	@Override
+	public synchronized long nextId() {
+		long timestamp = System.currentTimeMillis();
+		// 时钟回拨时沿用上次时间, 由序列保证唯一
+		if (timestamp < lastTimestamp) {
+			timestamp = lastTimestamp;
+		}
+		if (timestamp == lastTimestamp) {
+			sequence = (sequence + 1) & SEQUENCE_MASK;
+			// 当前毫秒序列用尽, 借用下一毫秒
+			if (sequence == 0) {
+				timestamp = lastTimestamp + 1;
+			}
+		} else {
+			sequence = 0L;
+		}
+		lastTimestamp = timestamp;
+		return ((timestamp - EPOCH) << TIMESTAMP_SHIFT) | (nodeId << NODE_SHIFT) | sequence;
+	}
+
+	/**
+	 * 从编号中解析生成时间
+	 *
+	 * @param id
+	 * @return
+	 */
+	public static long getTimestamp(long id) {
+		return (id >>> TIMESTAMP_SHIFT) + EPOCH;
+	}
+
+	/**
+	 * @return the nodeId
+	 */
+	public long getNodeId() {
+		return nodeId;
+	}
+
+	private static long configuredNodeId() {
+		String value = System.getProperty(NODE_ID_PROPERTY);
+		if (value == null || value.trim().isEmpty()) {
+			value = System.getenv(NODE_ID_ENV);
+		}
+		if (value == null || value.trim().isEmpty()) {
+			throw new IllegalStateException("未指定主键生成器的节点编号, 请设置系统属性" + NODE_ID_PROPERTY + "或环境变量" + NODE_ID_ENV
+					+ ", 集群中每个节点取不同的值");
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalStateException("主键生成器的节点编号不是数字: " + value, e);
+		}
+	}
+
+}
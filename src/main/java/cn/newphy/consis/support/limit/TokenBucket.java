@@ -0,0 +1,105 @@
+package cn.newphy.consis.support.limit;
+
+/**
+ * 令牌桶限流器
+ * <p>
+ * 按速率补充令牌, 容量为一秒的令牌数; 速率可在运行时调整
+ *
+ * @author Newphy
+ */
+public class TokenBucket {
+
+	// 每秒令牌数
+	private double rate;
+
+	private double capacity;
+
+	private double tokens;
+
+	private long lastRefillTime;
+
+	public TokenBucket(double rate) {
+		setRate(rate);
+		this.tokens = capacity;
+	}
+
+	/**
+	 * 尝试获取令牌
+	 * 
+	 * @param permits
+	 * @return
+	 */
+	public synchronized boolean tryAcquire(int permits) {
+		refill();
+		if (tokens >= permits) {
+			tokens -= permits;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * 归还未使用的令牌
+	 * 
+	 * @param permits
+	 */
+	public synchronized void release(int permits) {
+		tokens = Math.min(capacity, tokens + permits);
+	}
+
+	/**
+	 * 获得指定数量令牌可用的时间
+	 * 
+	 * @param permits
+	 * @return
+	 */
+	public synchronized long getRetryAfter(int permits) {
+		refill();
+		long now = currentTimeMillis();
+		if (tokens >= permits) {
+			return now;
+		}
+		return now + (long) Math.ceil((permits - tokens) * 1000 / rate);
+	}
+
+	/**
+	 * @return the rate
+	 */
+	public synchronized double getRate() {
+		return rate;
+	}
+
+	/**
+	 * 设置速率
+	 * 
+	 * @param rate
+	 *            每秒令牌数
+	 */
+	public synchronized void setRate(double rate) {
+		if (rate <= 0) {
+			throw new IllegalArgumentException("rate必须大于0");
+		}
+		refill();
+		this.rate = rate;
+		this.capacity = Math.max(1, rate);
+		this.tokens = Math.min(tokens, capacity);
+	}
+
+	/**
+	 * 当前时间(毫秒)
+	 * 
+	 * @return
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	private void refill() {
+		long now = currentTimeMillis();
+		if (lastRefillTime > 0 && now > lastRefillTime) {
+			tokens = Math.min(capacity, tokens + (now - lastRefillTime) * rate / 1000);
+		}
+		lastRefillTime = now;
+	}
+
+}
@@ -1,56 +1,71 @@
 package cn.newphy.consis.support.lock;
 
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.sql.DataSource;
 
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.util.Assert;
 
+import cn.newphy.consis.dialect.Dialect;
+import cn.newphy.consis.dialect.Dialects;
 import cn.newphy.consis.support.UniqueId;
 
 public class DBDistributedLock implements DistributedLock {
 	private static final int OVERDUE = 300;
 
+	private static final String LOCK_SQL = "UPDATE t_distributed_lock SET status = 1, lock_time = ?, lock_token = ? "
+			+ "WHERE lock_module = ? AND (status = 0 OR (status = 1 AND lock_time < ?))";
+
+	private static final String EXTEND_SQL = "UPDATE t_distributed_lock SET status = 1, lock_time = ? WHERE lock_token = ? ";
+
+	private static final String UNLOCK_SQL = "UPDATE t_distributed_lock SET status = 0, lock_time = ? WHERE lock_token = ? ";
+
 	private JdbcTemplate jdbcTemplate;
 
+	// 锁记录不存在时插入, 已存在时不修改
+	private final String initSql;
+
+	// 已确认存在锁记录的模块
+	private final Set<String> initializedModules = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
 	public DBDistributedLock(DataSource dataSource) {
+		this(dataSource, Dialects.detect(dataSource));
+	}
+
+	public DBDistributedLock(DataSource dataSource, Dialect dialect) {
 		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.initSql = dialect.insertIgnoreSql("t_distributed_lock", new String[] { "lock_module", "status", "lock_time" },
+				new String[] { "lock_module" });
 	}
 
 	@Override
 	public String lock(String lockModule) {
 		Assert.isTrue(lockModule != null && lockModule.length() > 0, "lockModule不能为空");
-		StringBuilder sql = new StringBuilder();
-		sql.append("UPDATE t_distributed_lock ");
-		sql.append("SET STATUS = 1, ");
-		sql.append(" lock_time = ?, lock_token = ? ");
-		sql.append("WHERE ");
-		sql.append("	lock_module = ? ");
-		sql.append("AND ( ");
-		sql.append("	STATUS = 0 ");
-		sql.append("	OR (STATUS = 1 AND lock_time < ?) ");
-		sql.append(") ");
-
+		if (!initializedModules.contains(lockModule)) {
+			jdbcTemplate.update(initSql, lockModule, 0, new Date());
+			initializedModules.add(lockModule);
+		}
 		String token = UniqueId.get().toString();
 		Date now = new Date();
 		Date overdue = overdue(now);
-		int updates = jdbcTemplate.update(sql.toString(), new Object[] { now, token, lockModule, overdue });
+		int updates = jdbcTemplate.update(LOCK_SQL, new Object[] { now, token, lockModule, overdue });
 		return updates > 0 ? token : null;
 	}
 
 	@Override
 	public boolean extend(String token) {
-		String sql = "UPDATE t_distributed_lock SET status = 1, lock_time = ? WHERE lock_token = ? ";
-		int updates = jdbcTemplate.update(sql, new Date(), token);
+		int updates = jdbcTemplate.update(EXTEND_SQL, new Date(), token);
 		return updates > 0;
 	}
 
 	@Override
 	public void unlock(String token) {
-		String sql = "UPDATE t_distributed_lock SET status = 0, lock_time = ? WHERE lock_token = ? ";
-		jdbcTemplate.update(sql, new Date(), token);
+		jdbcTemplate.update(UNLOCK_SQL, new Date(), token);
 	}
 
 	private Date overdue(Date date) {
@@ -0,0 +1,26 @@
+package cn.newphy.consis.support.lock;
+
+import cn.newphy.consis.support.UniqueId;
+
+/**
+ * 不做互斥的分布式锁
+ * <p>
+ * 用于按行认领补偿的场景, 各节点通过认领保证不重复补偿, 不再需要全局锁
+ */
+public class NoopDistributedLock implements DistributedLock {
+
+	@Override
+	public String lock(String locker) {
+		return UniqueId.get().toString();
+	}
+
+	@Override
+	public boolean extend(String token) {
+		return true;
+	}
+
+	@Override
+	public void unlock(String token) {
+	}
+
+}
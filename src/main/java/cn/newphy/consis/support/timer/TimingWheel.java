@@ -0,0 +1,296 @@
+package cn.newphy.consis.support.timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 分层时间轮
+ * <p>
+ * 按到期时间保存编号, 到期后批量回调. 每层有wheelSize个槽位, 第L层每个槽位跨度为wheelSize^L个刻度,
+ * 高层槽位到期时将其中的编号重新分配到低层. 槽位使用long数组保存编号和到期刻度, 不为每个编号创建对象.
+ * <p>
+ * 超过最大跨度或容量的编号不会加入, 由调用方通过其他方式处理.
+ *
+ * @author Newphy
+ */
+public class TimingWheel {
+	private Logger logger = LoggerFactory.getLogger(TimingWheel.class);
+
+	private final long tickMs;
+
+	private final int wheelSize;
+
+	private final int levels;
+
+	private final int maxSize;
+
+	// 各层一个槽位的刻度跨度
+	private final long[] spans;
+
+	private final Bucket[][] buckets;
+
+	private final ExpireListener listener;
+
+	// 最后处理的刻度
+	private long currentTick;
+
+	private int size;
+
+	private LongBuffer expired = new LongBuffer(64);
+
+	private volatile boolean running = false;
+
+	private Thread worker;
+
+	/**
+	 * @param tickMs
+	 *            刻度(毫秒)
+	 * @param wheelSize
+	 *            每层槽位数
+	 * @param levels
+	 *            层数
+	 * @param maxSize
+	 *            最大容量
+	 * @param listener
+	 *            到期回调
+	 */
+	public TimingWheel(long tickMs, int wheelSize, int levels, int maxSize, ExpireListener listener) {
+		if (tickMs <= 0 || wheelSize <= 1 || levels <= 0) {
+			throw new IllegalArgumentException("时间轮参数错误");
+		}
+		this.tickMs = tickMs;
+		this.wheelSize = wheelSize;
+		this.levels = levels;
+		this.maxSize = maxSize;
+		this.listener = listener;
+		this.spans = new long[levels + 1];
+		this.spans[0] = 1;
+		for (int i = 1; i <= levels; i++) {
+			spans[i] = spans[i - 1] * wheelSize;
+		}
+		this.buckets = new Bucket[levels][wheelSize];
+		for (int i = 0; i < levels; i++) {
+			for (int j = 0; j < wheelSize; j++) {
+				buckets[i][j] = new Bucket();
+			}
+		}
+	}
+
+	/**
+	 * 启动时间轮线程
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		startClock();
+		worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				work();
+			}
+		}, "consistency-timing-wheel");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * 从当前时间开始计时, 不启动时间轮线程
+	 */
+	synchronized void startClock() {
+		currentTick = currentTimeMillis() / tickMs;
+		running = true;
+	}
+
+	/**
+	 * 停止时间轮线程, 未到期的编号丢弃
+	 */
+	public void stop() {
+		running = false;
+		Thread t = worker;
+		if (t != null) {
+			t.interrupt();
+		}
+	}
+
+	/**
+	 * 加入编号
+	 *
+	 * @param id
+	 * @param dueTime
+	 *            到期时间(毫秒)
+	 * @return 是否加入成功, 超过跨度或容量时返回false
+	 */
+	public synchronized boolean add(long id, long dueTime) {
+		if (!running || size >= maxSize) {
+			return false;
+		}
+		long dueTick = Math.max(currentTick + 1, (dueTime + tickMs - 1) / tickMs);
+		// 最高层只保留一圈
+		if (dueTick / spans[levels - 1] - currentTick / spans[levels - 1] >= wheelSize) {
+			return false;
+		}
+		place(id, dueTick, currentTick);
+		size++;
+		return true;
+	}
+
+	/**
+	 * @return 当前编号数量
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * 放入槽位: 与基准刻度处于同一个上层跨度内的最低层
+	 *
+	 * @param id
+	 * @param dueTick
+	 * @param baseTick
+	 */
+	private void place(long id, long dueTick, long baseTick) {
+		int level = 0;
+		while (level < levels - 1 && dueTick / spans[level + 1] != baseTick / spans[level + 1]) {
+			level++;
+		}
+		int slot = (int) ((dueTick / spans[level]) % wheelSize);
+		buckets[level][slot].add(id, dueTick);
+	}
+
+	private void work() {
+		while (running) {
+			advanceClock();
+			try {
+				Thread.sleep(tickMs - currentTimeMillis() % tickMs);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+	}
+
+	/**
+	 * 推进到当前时间, 回调到期的编号
+	 */
+	void advanceClock() {
+		long nowTick = currentTimeMillis() / tickMs;
+		long[] ids = null;
+		int count = 0;
+		synchronized (this) {
+			while (currentTick < nowTick) {
+				advance(currentTick + 1);
+			}
+			if (expired.count > 0) {
+				ids = expired.values;
+				count = expired.count;
+				expired = new LongBuffer(64);
+			}
+		}
+		if (count > 0) {
+			try {
+				listener.onExpire(ids, count);
+			} catch (RuntimeException e) {
+				logger.error("~~~ 时间轮到期处理出错, count={} ~~~", count, e);
+			}
+		}
+	}
+
+	/**
+	 * 当前时间(毫秒)
+	 * 
+	 * @return
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * 推进一个刻度: 先将到达的高层槽位降级, 再处理第0层到期槽位
+	 *
+	 * @param tick
+	 */
+	private void advance(long tick) {
+		for (int level = levels - 1; level > 0; level--) {
+			if (tick % spans[level] == 0) {
+				Bucket bucket = buckets[level][(int) ((tick / spans[level]) % wheelSize)];
+				for (int i = 0; i < bucket.count; i++) {
+					place(bucket.ids[i], bucket.dueTicks[i], tick);
+				}
+				bucket.clear();
+			}
+		}
+		Bucket bucket = buckets[0][(int) (tick % wheelSize)];
+		for (int i = 0; i < bucket.count; i++) {
+			expired.add(bucket.ids[i]);
+		}
+		size -= bucket.count;
+		bucket.clear();
+		currentTick = tick;
+	}
+
+	/**
+	 * 到期回调
+	 */
+	public interface ExpireListener {
+
+		/**
+		 * 编号到期
+		 *
+		 * @param ids
+		 *            到期编号, 只有前count个有效
+		 * @param count
+		 */
+		void onExpire(long[] ids, int count);
+	}
+
+	private static class Bucket {
+		private static final long[] EMPTY = new long[0];
+
+		long[] ids = EMPTY;
+		long[] dueTicks = EMPTY;
+		int count;
+
+		void add(long id, long dueTick) {
+			if (count == ids.length) {
+				int capacity = Math.max(8, count * 2);
+				long[] newIds = new long[capacity];
+				long[] newDueTicks = new long[capacity];
+				System.arraycopy(ids, 0, newIds, 0, count);
+				System.arraycopy(dueTicks, 0, newDueTicks, 0, count);
+				ids = newIds;
+				dueTicks = newDueTicks;
+			}
+			ids[count] = id;
+			dueTicks[count] = dueTick;
+			count++;
+		}
+
+		void clear() {
+			// 释放扩容过大的数组
+			if (ids.length > 1024) {
+				ids = EMPTY;
+				dueTicks = EMPTY;
+			}
+			count = 0;
+		}
+	}
+
+	private static class LongBuffer {
+		long[] values;
+		int count;
+
+		LongBuffer(int capacity) {
+			values = new long[capacity];
+		}
+
+		void add(long value) {
+			if (count == values.length) {
+				long[] newValues = new long[count * 2];
+				System.arraycopy(values, 0, newValues, 0, count);
+				values = newValues;
+			}
+			values[count++] = value;
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package cn.newphy.consis.support.transaction;
 
 import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
@@ -32,4 +33,54 @@ public class TransactionSynchronizationUtil {
 		}
 	}
 
+	/**
+	 * 当前线程是否有事务同步
+	 * 
+	 * @return
+	 */
+	public static boolean isSynchronizationActive() {
+		return TransactionSynchronizationManager.isSynchronizationActive();
+	}
+
+	/**
+	 * 获得当前事务绑定的资源
+	 * 
+	 * @param key
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T getResource(Object key) {
+		return (T) TransactionSynchronizationManager.getResource(key);
+	}
+
+	/**
+	 * 注册事务同步器并绑定到当前事务, 事务完成后自动解绑
+	 * <p>
+	 * 同一事务内可通过{@link #getResource(Object)}取回该同步器, 实现每个事务只注册一次.
+	 * 事务挂起时(如内层REQUIRES_NEW事务)解绑, 恢复时重新绑定, 内层事务取不到外层的同步器
+	 * 
+	 * @param key
+	 * @param synchronization
+	 */
+	public static void bindSynchronization(final Object key, final TransactionSynchronization synchronization) {
+		TransactionSynchronizationManager.bindResource(key, synchronization);
+		TransactionSynchronizationManager.registerSynchronization(synchronization);
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void suspend() {
+				TransactionSynchronizationManager.unbindResourceIfPossible(key);
+			}
+
+			@Override
+			public void resume() {
+				TransactionSynchronizationManager.bindResource(key, synchronization);
+			}
+
+			@Override
+			public void afterCompletion(int status) {
+				TransactionSynchronizationManager.unbindResourceIfPossible(key);
+			}
+		});
+	}
+
 }
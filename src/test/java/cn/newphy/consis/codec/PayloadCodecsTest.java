@@ -0,0 +1,219 @@
+package cn.newphy.consis.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.TypeReference;
+import com.alibaba.fastjson.util.Base64;
+
+import cn.newphy.consis.ConsistencyInfo;
+
+/**
+ * JSON和二进制编码器及保存形式的往返
+ *
+ * @author Newphy
+ */
+public class PayloadCodecsTest {
+
+	private static final String NON_ASCII = "订单已支付 ✓ Zürich ∑ 😀";
+
+	private final PayloadCodec json = PayloadCodecs.getCodec(JsonPayloadCodec.NAME);
+
+	private final PayloadCodec binary = PayloadCodecs.getCodec(BinaryPayloadCodec.NAME);
+
+	@Test
+	public void emptyPayloads() {
+		for (PayloadCodec codec : Arrays.asList(json, binary)) {
+			assertEquals("", roundTrip(codec, ""));
+			assertEquals(Collections.emptyList(), roundTrip(codec, new ArrayList<String>(), new TypeReference<List<String>>() {
+			}));
+			Order order = roundTrip(codec, new Order());
+			assertEquals(0, order.getId());
+			assertNull(order.getName());
+			assertNull(order.getItems());
+			assertNull(order.getData());
+		}
+	}
+
+	@Test
+	public void nonAsciiPayloads() {
+		for (PayloadCodec codec : Arrays.asList(json, binary)) {
+			assertEquals(NON_ASCII, roundTrip(codec, NON_ASCII));
+			Order order = roundTrip(codec, order(3));
+			assertEquals(NON_ASCII + 3, order.getName());
+			assertEquals(Arrays.asList(NON_ASCII + 0, NON_ASCII + 1, NON_ASCII + 2), order.getItems());
+		}
+	}
+
+	@Test
+	public void largePayloads() {
+		StringBuilder text = new StringBuilder();
+		while (text.length() < 200000) {
+			text.append(NON_ASCII).append(text.length());
+		}
+		for (PayloadCodec codec : Arrays.asList(json, binary)) {
+			assertEquals(text.toString(), roundTrip(codec, text.toString()));
+			Order expected = order(20000);
+			Order order = roundTrip(codec, expected);
+			assertEquals(expected.getId(), order.getId());
+			assertEquals(expected.getAmount(), order.getAmount());
+			assertEquals(expected.getCreateTime(), order.getCreateTime());
+			assertEquals(expected.getItems(), order.getItems());
+			assertArrayEquals(expected.getData(), order.getData());
+		}
+	}
+
+	@Test
+	public void binaryWritesBeanProperties() {
+		Order order = order(2);
+		// 二进制编码的属性名与JSON编码一致
+		JSONObject expected = json.decode(json.encode(order), JSONObject.class);
+		JSONObject actual = binary.decode(binary.encode(order), JSONObject.class);
+		assertEquals(expected.keySet(), actual.keySet());
+		assertEquals(expected.get("items"), actual.get("items"));
+	}
+
+	@Test
+	public void base64MatchesDecoder() {
+		assertEquals("", PayloadCodecs.encodeBase64(new byte[0]));
+		assertEquals("Zg==", PayloadCodecs.encodeBase64("f".getBytes()));
+		assertEquals("Zm8=", PayloadCodecs.encodeBase64("fo".getBytes()));
+		assertEquals("Zm9v", PayloadCodecs.encodeBase64("foo".getBytes()));
+		Random random = new Random(7);
+		for (int len = 1; len < 300; len++) {
+			byte[] data = new byte[len];
+			random.nextBytes(data);
+			assertArrayEquals(data, Base64.decodeFast(PayloadCodecs.encodeBase64(data)));
+		}
+	}
+
+	@Test
+	public void storedContentRoundTrip() {
+		for (PayloadCodec codec : Arrays.asList(json, binary)) {
+			for (Order expected : Arrays.asList(new Order(), order(3), order(20000))) {
+				ConsistencyInfo cinfo = new ConsistencyInfo();
+				PayloadCodecs.encode(cinfo, codec, expected, 0);
+				assertFalse(cinfo.isCompressed());
+				assertEquals(codec.getName(), cinfo.getCodec());
+				assertEquals(codec.isBinary(), PayloadCodecs.isBinaryContent(cinfo));
+				Order order = PayloadCodecs.getCodec(cinfo.getCodec()).decode(PayloadCodecs.contentBytes(cinfo), Order.class);
+				assertEquals(expected.getItems(), order.getItems());
+				assertArrayEquals(expected.getData(), order.getData());
+			}
+		}
+	}
+
+	@Test
+	public void legacyRowDecodesAsJson() {
+		ConsistencyInfo cinfo = new ConsistencyInfo();
+		cinfo.setContent("{\"id\":5,\"name\":\"" + NON_ASCII + "\"}");
+		assertFalse(PayloadCodecs.isBinaryContent(cinfo));
+		Order order = PayloadCodecs.getCodec(cinfo.getCodec()).decode(PayloadCodecs.contentBytes(cinfo), Order.class);
+		assertEquals(5, order.getId());
+		assertEquals(NON_ASCII, order.getName());
+	}
+
+	@Test
+	public void binaryReadsArrayEncodedBytes() {
+		// 旧版本将byte[]写为整数数组
+		byte[] data = new byte[] { 1, 10, 3, 3, 2, 3, 127, 3, 0 };
+		assertArrayEquals(new byte[] { 1, -64, 0 }, binary.<byte[]> decode(data, byte[].class));
+	}
+
+	static <T> T roundTrip(PayloadCodec codec, T value) {
+		@SuppressWarnings("unchecked")
+		Class<T> type = (Class<T>) value.getClass();
+		return codec.decode(codec.encode(value), type);
+	}
+
+	static <T> T roundTrip(PayloadCodec codec, T value, TypeReference<T> type) {
+		return codec.decode(codec.encode(value), type.getType());
+	}
+
+	static Order order(int items) {
+		Order order = new Order();
+		order.setId(-items * 1000000007L);
+		order.setName(NON_ASCII + items);
+		order.setAmount(new BigDecimal("1234567.0089"));
+		order.setCreateTime(new Date(1500000000000L + items));
+		List<String> list = new ArrayList<>();
+		byte[] data = new byte[items];
+		for (int i = 0; i < items; i++) {
+			list.add(NON_ASCII + i);
+			data[i] = (byte) (i * 31);
+		}
+		order.setItems(list);
+		order.setData(data);
+		return order;
+	}
+
+	public static class Order {
+		private long id;
+		private String name;
+		private BigDecimal amount;
+		private Date createTime;
+		private List<String> items;
+		private byte[] data;
+
+		public long getId() {
+			return id;
+		}
+
+		public void setId(long id) {
+			this.id = id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public BigDecimal getAmount() {
+			return amount;
+		}
+
+		public void setAmount(BigDecimal amount) {
+			this.amount = amount;
+		}
+
+		public Date getCreateTime() {
+			return createTime;
+		}
+
+		public void setCreateTime(Date createTime) {
+			this.createTime = createTime;
+		}
+
+		public List<String> getItems() {
+			return items;
+		}
+
+		public void setItems(List<String> items) {
+			this.items = items;
+		}
+
+		public byte[] getData() {
+			return data;
+		}
+
+		public void setData(byte[] data) {
+			this.data = data;
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package cn.newphy.consis.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.TextMessage;
+
+import org.junit.Test;
+
+import cn.newphy.consis.ConsistencyInfo;
+import cn.newphy.consis.mq.MQConsistencyInvokerRegistrar;
+import cn.newphy.consis.mq.MQKeys;
+
+/**
+ * 压缩的取舍及压缩内容经消费端的还原
+ *
+ * @author Newphy
+ */
+public class PayloadCompressionTest {
+
+	private static final int THRESHOLD = 64;
+
+	private final PayloadCodec json = PayloadCodecs.getCodec(JsonPayloadCodec.NAME);
+
+	private final PayloadCodec binary = PayloadCodecs.getCodec(BinaryPayloadCodec.NAME);
+
+	@Test
+	public void compressesRepetitiveContent() {
+		for (PayloadCodec codec : new PayloadCodec[] { json, binary }) {
+			ConsistencyInfo cinfo = encode(codec, repetitive());
+			assertTrue(cinfo.isCompressed());
+			assertTrue(PayloadCodecs.isBinaryContent(cinfo));
+		}
+	}
+
+	@Test
+	public void skipsWhenBase64DoesNotShrink() {
+		// 随机字节压缩后不会变小
+		byte[] bytes = new byte[2000];
+		new Random(11).nextBytes(bytes);
+		ConsistencyInfo cinfo = encode(binary, bytes);
+		assertFalse(cinfo.isCompressed());
+		assertEquals(PayloadCodecs.encodeBase64(binary.encode(bytes)), cinfo.getContent());
+	}
+
+	@Test
+	public void skipsWhenOnlyRawBytesShrink() {
+		// 文本压缩后字节变小, 但Base64形式比原文本大
+		String text = randomText(2000);
+		byte[] data = json.encode(text);
+		assertTrue(PayloadCodecs.compress(data).length < data.length);
+		ConsistencyInfo cinfo = encode(json, text);
+		assertFalse(cinfo.isCompressed());
+		assertFalse(PayloadCodecs.isBinaryContent(cinfo));
+		assertEquals(PayloadCodecs.toText(data), cinfo.getContent());
+	}
+
+	@Test
+	public void belowThresholdIsNotCompressed() {
+		ConsistencyInfo cinfo = encode(json, "aaaa");
+		assertFalse(cinfo.isCompressed());
+		assertEquals("\"aaaa\"", cinfo.getContent());
+	}
+
+	@Test
+	public void compressedBytesMessageRoundTrip() throws JMSException {
+		for (PayloadCodec codec : new PayloadCodec[] { json, binary }) {
+			String expected = repetitive();
+			ConsistencyInfo cinfo = encode(codec, expected);
+			assertTrue(cinfo.isCompressed());
+			// 与MQConsistencyHandler.createMessage()相同: 压缩内容以BytesMessage发送原始字节
+			Message message = bytesMessage(PayloadCodecs.contentBytes(cinfo), cinfo);
+			byte[] data = MQConsistencyInvokerRegistrar.readContent(message);
+			assertEquals(expected, codec.<String> decode(data, String.class));
+		}
+	}
+
+	@Test
+	public void compressedTextMessageRoundTrip() throws JMSException {
+		for (PayloadCodec codec : new PayloadCodec[] { json, binary }) {
+			String expected = repetitive();
+			ConsistencyInfo cinfo = encode(codec, expected);
+			assertTrue(cinfo.isCompressed());
+			// 压缩内容以TextMessage发送时为其保存形式
+			Message message = textMessage(cinfo.getContent(), cinfo);
+			byte[] data = MQConsistencyInvokerRegistrar.readContent(message);
+			assertEquals(expected, codec.<String> decode(data, String.class));
+		}
+	}
+
+	@Test
+	public void uncompressedMessagesRoundTrip() throws JMSException {
+		ConsistencyInfo text = encode(json, "订单");
+		assertEquals("订单", json.<String> decode(MQConsistencyInvokerRegistrar.readContent(textMessage(text.getContent(), text)),
+				String.class));
+		ConsistencyInfo bytes = encode(binary, "订单");
+		assertEquals("订单", binary.<String> decode(
+				MQConsistencyInvokerRegistrar.readContent(bytesMessage(PayloadCodecs.contentBytes(bytes), bytes)), String.class));
+	}
+
+	private static ConsistencyInfo encode(PayloadCodec codec, Object obj) {
+		ConsistencyInfo cinfo = new ConsistencyInfo();
+		PayloadCodecs.encode(cinfo, codec, obj, THRESHOLD);
+		return cinfo;
+	}
+
+	private static String repetitive() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			sb.append("订单明细-").append(i % 10).append(';');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * 可打印ASCII字符(不含需转义的引号和反斜杠)组成的随机文本
+	 */
+	private static String randomText(int size) {
+		Random random = new Random(11);
+		StringBuilder sb = new StringBuilder(size);
+		while (sb.length() < size) {
+			char c = (char) ('!' + random.nextInt('~' - '!' + 1));
+			if (c != '"' && c != '\\') {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	private static Message bytesMessage(final byte[] body, ConsistencyInfo cinfo) {
+		return message(BytesMessage.class, body, cinfo);
+	}
+
+	private static Message textMessage(final String text, ConsistencyInfo cinfo) {
+		return message(TextMessage.class, text, cinfo);
+	}
+
+	private static Message message(Class<? extends Message> type, final Object body, ConsistencyInfo cinfo) {
+		final Map<String, Object> properties = new HashMap<>();
+		properties.put(MQKeys.CODEC, cinfo.getCodec());
+		if (cinfo.isCompressed()) {
+			properties.put(MQKeys.COMPRESSED, true);
+		}
+		return (Message) Proxy.newProxyInstance(PayloadCompressionTest.class.getClassLoader(), new Class<?>[] { type },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						String name = method.getName();
+						if (name.equals("getBooleanProperty")) {
+							return Boolean.TRUE.equals(properties.get(args[0]));
+						} else if (name.equals("getStringProperty")) {
+							return properties.get(args[0]);
+						} else if (name.equals("getText")) {
+							return body;
+						} else if (name.equals("getBodyLength")) {
+							return (long) ((byte[]) body).length;
+						} else if (name.equals("readBytes")) {
+							byte[] src = (byte[]) body;
+							System.arraycopy(src, 0, args[0], 0, src.length);
+							return src.length;
+						}
+						throw new UnsupportedOperationException(name);
+					}
+				});
+	}
+}
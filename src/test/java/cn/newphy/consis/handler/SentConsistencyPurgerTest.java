@@ -0,0 +1,150 @@
+package cn.newphy.consis.handler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import cn.newphy.consis.ConsistencyInfo;
+import cn.newphy.consis.dao.ConsistencyDao;
+
+/**
+ * 同步删除、异步删除和审计抽样
+ *
+ * @author Newphy
+ */
+public class SentConsistencyPurgerTest {
+
+	// 每次删除的编号
+	private final List<List<Long>> removed = Collections.synchronizedList(new ArrayList<List<Long>>());
+
+	// 写入审计的消息
+	private final List<ConsistencyInfo> audited = new ArrayList<>();
+
+	private boolean auditFails = false;
+
+	private final ConsistencyDao consistencyDao = (ConsistencyDao) Proxy.newProxyInstance(getClass().getClassLoader(),
+			new Class<?>[] { ConsistencyDao.class }, new InvocationHandler() {
+				@Override
+				@SuppressWarnings("unchecked")
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					if (method.getName().equals("removeConsistencies")) {
+						List<Long> ids = new ArrayList<>((List<Long>) args[0]);
+						removed.add(ids);
+						return ids.size();
+					}
+					if (method.getName().equals("addAudits")) {
+						if (auditFails) {
+							throw new IllegalStateException("audit");
+						}
+						audited.addAll((List<ConsistencyInfo>) args[0]);
+						return null;
+					}
+					throw new UnsupportedOperationException(method.getName());
+				}
+			});
+
+	private final SentConsistencyPurger purger = new SentConsistencyPurger(consistencyDao);
+
+	@After
+	public void tearDown() {
+		purger.stop();
+	}
+
+	@Test
+	public void syncDeletesInBatches() {
+		purger.setBatchSize(2);
+		purger.start();
+		assertFalse(purger.isAsync());
+		purger.purge(cinfos(1, 2, 3));
+		assertEquals(Arrays.asList(Arrays.asList(1L, 2L), Arrays.asList(3L)), removed);
+		assertTrue(audited.isEmpty());
+	}
+
+	@Test
+	public void asyncQueuesUntilFlush() {
+		purger.setAsync(true);
+		purger.setFlushInterval(60000);
+		purger.start();
+		assertTrue(purger.isAsync());
+		purger.purge(cinfos(1, 2, 3));
+		assertTrue(removed.isEmpty());
+		// 停止时删除队列中剩余的消息
+		purger.stop();
+		assertEquals(Arrays.asList(Arrays.asList(1L, 2L, 3L)), removed);
+	}
+
+	@Test
+	public void asyncDeletesOverflowSynchronously() {
+		purger.setAsync(true);
+		purger.setFlushInterval(60000);
+		purger.setQueueCapacity(2);
+		purger.start();
+		purger.purge(cinfos(1, 2, 3));
+		assertEquals(Arrays.asList(Arrays.asList(3L)), removed);
+		purger.stop();
+		assertEquals(Arrays.asList(Arrays.asList(3L), Arrays.asList(1L, 2L)), removed);
+	}
+
+	@Test
+	public void asyncFlushesInBackground() throws InterruptedException {
+		purger.setAsync(true);
+		purger.setFlushInterval(10);
+		purger.start();
+		purger.purge(cinfos(1, 2));
+		for (int i = 0; i < 200 && removed.isEmpty(); i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(Arrays.asList(Arrays.asList(1L, 2L)), removed);
+	}
+
+	@Test
+	public void auditsAllWhenRateIsOne() {
+		purger.setAuditSampleRate(1);
+		List<ConsistencyInfo> cinfos = cinfos(1, 2, 3);
+		purger.purge(cinfos);
+		assertEquals(cinfos, audited);
+	}
+
+	@Test
+	public void auditsSample() {
+		purger.setAuditSampleRate(0.5);
+		long[] ids = new long[2000];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = i + 1;
+		}
+		List<ConsistencyInfo> cinfos = cinfos(ids);
+		purger.purge(cinfos);
+		assertTrue(audited.size() > 800 && audited.size() < 1200);
+		assertTrue(cinfos.containsAll(audited));
+	}
+
+	@Test
+	public void auditFailureDoesNotBlockDelete() {
+		purger.setAuditSampleRate(1);
+		auditFails = true;
+		purger.purge(cinfos(1));
+		assertEquals(Arrays.asList(Arrays.asList(1L)), removed);
+	}
+
+	private static List<ConsistencyInfo> cinfos(long... ids) {
+		List<ConsistencyInfo> cinfos = new ArrayList<>(ids.length);
+		for (long id : ids) {
+			ConsistencyInfo cinfo = new ConsistencyInfo();
+			cinfo.setId(id);
+			cinfos.add(cinfo);
+		}
+		return cinfos;
+	}
+
+}
@@ -0,0 +1,69 @@
+package cn.newphy.consis.support.breaker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import cn.newphy.consis.support.breaker.CircuitBreaker.State;
+
+/**
+ * 全局熔断器与目标地址熔断器的隔离
+ *
+ * @author Newphy
+ */
+public class CircuitBreakerGroupTest {
+
+	private final CircuitBreakerGroup breakers = new CircuitBreakerGroup(3, 30000, 1000);
+
+	@Test
+	public void destinationFailuresDoNotOpenGlobal() {
+		for (int i = 0; i < 10; i++) {
+			breakers.onFailure("bad");
+		}
+		assertEquals(State.OPEN, breakers.getBreaker("bad").getState());
+		assertEquals(State.CLOSED, breakers.getGlobalBreaker().getState());
+		assertFalse(breakers.allowRequest("bad"));
+		assertTrue(breakers.allowRequest("good"));
+	}
+
+	@Test
+	public void connectionFailuresOpenGlobal() {
+		breakers.onConnectionFailure();
+		breakers.onConnectionFailure();
+		assertTrue(breakers.allowRequest("good"));
+		breakers.onConnectionFailure();
+		assertEquals(State.OPEN, breakers.getGlobalBreaker().getState());
+		assertEquals(State.CLOSED, breakers.getBreaker("good").getState());
+		assertFalse(breakers.allowRequest("good"));
+		assertTrue(breakers.getRetryAfter("good") > System.currentTimeMillis());
+	}
+
+	@Test
+	public void sessionObtainedResetsConnectionFailures() {
+		breakers.onConnectionFailure();
+		breakers.onConnectionFailure();
+		// 取得连接后的失败说明连接可用
+		breakers.onFailure("bad");
+		breakers.onConnectionFailure();
+		breakers.onConnectionFailure();
+		assertEquals(State.CLOSED, breakers.getGlobalBreaker().getState());
+	}
+
+	@Test
+	public void successClosesBoth() {
+		breakers.onFailure("dest");
+		breakers.onFailure("dest");
+		breakers.onConnectionFailure();
+		breakers.onConnectionFailure();
+		breakers.onSuccess("dest");
+		breakers.onFailure("dest");
+		breakers.onFailure("dest");
+		breakers.onConnectionFailure();
+		breakers.onConnectionFailure();
+		assertEquals(State.CLOSED, breakers.getBreaker("dest").getState());
+		assertEquals(State.CLOSED, breakers.getGlobalBreaker().getState());
+	}
+
+}
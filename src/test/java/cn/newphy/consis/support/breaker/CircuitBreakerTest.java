@@ -0,0 +1,99 @@
+package cn.newphy.consis.support.breaker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import cn.newphy.consis.support.breaker.CircuitBreaker.State;
+
+/**
+ * 熔断器状态转换
+ *
+ * @author Newphy
+ */
+public class CircuitBreakerTest {
+
+	private long now = 1000;
+
+	private final CircuitBreaker breaker = new CircuitBreaker("test", 3, 500, 100) {
+		@Override
+		protected long currentTimeMillis() {
+			return now;
+		}
+	};
+
+	@Test
+	public void opensAfterConsecutiveFailures() {
+		breaker.onFailure();
+		breaker.onFailure();
+		assertEquals(State.CLOSED, breaker.getState());
+		assertTrue(breaker.allowRequest());
+		breaker.onFailure();
+		assertEquals(State.OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest());
+		assertEquals(1500, breaker.getRetryAfter());
+	}
+
+	@Test
+	public void successResetsFailureCount() {
+		breaker.onFailure();
+		breaker.onFailure();
+		breaker.onSuccess();
+		breaker.onFailure();
+		breaker.onFailure();
+		assertEquals(State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void halfOpenProbeClosesOnSuccess() {
+		open();
+		now = 1499;
+		assertFalse(breaker.allowRequest());
+		now = 1500;
+		assertTrue(breaker.allowRequest());
+		assertEquals(State.HALF_OPEN, breaker.getState());
+		// 探测间隔内只放行一次
+		assertFalse(breaker.allowRequest());
+		assertEquals(1600, breaker.getRetryAfter());
+		breaker.onSuccess();
+		assertEquals(State.CLOSED, breaker.getState());
+		assertTrue(breaker.allowRequest());
+		assertTrue(breaker.allowRequest());
+	}
+
+	@Test
+	public void halfOpenProbeReopensOnFailure() {
+		open();
+		now = 1500;
+		assertTrue(breaker.allowRequest());
+		breaker.onFailure();
+		assertEquals(State.OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest());
+		assertEquals(2000, breaker.getRetryAfter());
+		now = 2000;
+		assertTrue(breaker.allowRequest());
+		assertEquals(State.HALF_OPEN, breaker.getState());
+	}
+
+	@Test
+	public void halfOpenProbesEveryInterval() {
+		open();
+		now = 1500;
+		assertTrue(breaker.allowRequest());
+		now = 1599;
+		assertFalse(breaker.allowRequest());
+		now = 1600;
+		assertTrue(breaker.allowRequest());
+		assertEquals(State.HALF_OPEN, breaker.getState());
+	}
+
+	private void open() {
+		breaker.onFailure();
+		breaker.onFailure();
+		breaker.onFailure();
+		assertEquals(State.OPEN, breaker.getState());
+	}
+
+}
@@ -0,0 +1,101 @@
+package cn.newphy.consis.support.limit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * 令牌桶的补充、容量和等待时间
+ *
+ * @author Newphy
+ */
+public class TokenBucketTest {
+
+	private long now = 1000;
+
+	private final TokenBucket bucket = create(10);
+
+	@Test
+	public void startsFull() {
+		assertTrue(bucket.tryAcquire(10));
+		assertFalse(bucket.tryAcquire(1));
+	}
+
+	@Test
+	public void refillsAtRate() {
+		assertTrue(bucket.tryAcquire(10));
+		now += 100;
+		assertTrue(bucket.tryAcquire(1));
+		assertFalse(bucket.tryAcquire(1));
+		now += 250;
+		assertFalse(bucket.tryAcquire(3));
+		assertTrue(bucket.tryAcquire(2));
+		assertFalse(bucket.tryAcquire(1));
+	}
+
+	@Test
+	public void burstCappedAtCapacity() {
+		assertTrue(bucket.tryAcquire(10));
+		now += 10000;
+		assertFalse(bucket.tryAcquire(11));
+		assertTrue(bucket.tryAcquire(10));
+		assertFalse(bucket.tryAcquire(1));
+	}
+
+	@Test
+	public void releaseCappedAtCapacity() {
+		assertTrue(bucket.tryAcquire(2));
+		bucket.release(5);
+		assertFalse(bucket.tryAcquire(11));
+		assertTrue(bucket.tryAcquire(10));
+	}
+
+	@Test
+	public void retryAfterWaitsForMissingTokens() {
+		assertEquals(now, bucket.getRetryAfter(1));
+		assertTrue(bucket.tryAcquire(10));
+		assertEquals(now + 100, bucket.getRetryAfter(1));
+		assertEquals(now + 500, bucket.getRetryAfter(5));
+		now += 50;
+		assertEquals(now + 50, bucket.getRetryAfter(1));
+		now += 50;
+		assertEquals(now, bucket.getRetryAfter(1));
+	}
+
+	@Test
+	public void retryAfterRoundsUp() {
+		TokenBucket slow = create(3);
+		assertTrue(slow.tryAcquire(3));
+		assertEquals(now + 334, slow.getRetryAfter(1));
+	}
+
+	@Test
+	public void lowerRateShrinksCapacity() {
+		bucket.setRate(2);
+		assertFalse(bucket.tryAcquire(3));
+		assertTrue(bucket.tryAcquire(2));
+		now += 500;
+		assertTrue(bucket.tryAcquire(1));
+	}
+
+	@Test
+	public void capacityAtLeastOnePermit() {
+		TokenBucket slow = create(0.5);
+		assertTrue(slow.tryAcquire(1));
+		assertEquals(now + 2000, slow.getRetryAfter(1));
+		now += 10000;
+		assertFalse(slow.tryAcquire(2));
+		assertTrue(slow.tryAcquire(1));
+	}
+
+	private TokenBucket create(double rate) {
+		return new TokenBucket(rate) {
+			@Override
+			protected long currentTimeMillis() {
+				return now;
+			}
+		};
+	}
+}
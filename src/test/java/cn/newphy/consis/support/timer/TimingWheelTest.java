@@ -0,0 +1,130 @@
+package cn.newphy.consis.support.timer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * 时间轮的放置、降级和拒绝
+ * <p>
+ * 刻度10ms, 每层4个槽位, 共2层: 第0层覆盖4个刻度, 第1层每个槽位覆盖4个刻度, 最多提前3个上层槽位
+ *
+ * @author Newphy
+ */
+public class TimingWheelTest {
+
+	private long now = 1000;
+
+	private final List<Long> expired = new ArrayList<>();
+
+	private final TimingWheel wheel = new TimingWheel(10, 4, 2, 5, new TimingWheel.ExpireListener() {
+		@Override
+		public void onExpire(long[] ids, int count) {
+			for (int i = 0; i < count; i++) {
+				expired.add(ids[i]);
+			}
+		}
+	}) {
+		@Override
+		protected long currentTimeMillis() {
+			return now;
+		}
+	};
+
+	@Test
+	public void rejectsBeforeStart() {
+		assertFalse(wheel.add(1, 1010));
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void expiresOnDueTick() {
+		wheel.startClock();
+		assertTrue(wheel.add(1, 1010));
+		assertTrue(wheel.add(2, 1025));
+		advanceTo(1000);
+		assertEquals(Collections.<Long> emptyList(), expired);
+		advanceTo(1010);
+		assertEquals(Arrays.asList(1L), expired);
+		// 不足一个刻度的到期时间向上取整
+		advanceTo(1029);
+		assertEquals(Arrays.asList(1L), expired);
+		advanceTo(1030);
+		assertEquals(Arrays.asList(1L, 2L), expired);
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void pastDueExpiresOnNextTick() {
+		wheel.startClock();
+		assertTrue(wheel.add(1, 500));
+		advanceTo(1010);
+		assertEquals(Arrays.asList(1L), expired);
+	}
+
+	@Test
+	public void cascadesFromUpperLevel() {
+		wheel.startClock();
+		// 第110刻度与当前第100刻度不在同一个上层槽位, 放入第1层, 第108刻度降级到第0层
+		assertTrue(wheel.add(1, 1100));
+		assertTrue(wheel.add(2, 1090));
+		advanceTo(1080);
+		assertEquals(Collections.<Long> emptyList(), expired);
+		advanceTo(1090);
+		assertEquals(Arrays.asList(2L), expired);
+		advanceTo(1099);
+		assertEquals(Arrays.asList(2L), expired);
+		advanceTo(1100);
+		assertEquals(Arrays.asList(2L, 1L), expired);
+	}
+
+	@Test
+	public void cascadesAcrossLongJump() {
+		wheel.startClock();
+		assertTrue(wheel.add(1, 1150));
+		assertTrue(wheel.add(2, 1120));
+		// 一次推进多个刻度时按刻度依次降级和到期
+		advanceTo(1200);
+		assertEquals(Arrays.asList(2L, 1L), expired);
+	}
+
+	@Test
+	public void rejectsBeyondSpan() {
+		wheel.startClock();
+		// 最高层只保留一圈: 当前上层槽位为25, 第115刻度在槽位28, 第116刻度在槽位29
+		assertTrue(wheel.add(1, 1150));
+		assertFalse(wheel.add(2, 1160));
+		assertEquals(1, wheel.size());
+		advanceTo(1150);
+		assertEquals(Arrays.asList(1L), expired);
+		// 时间前进后跨度随之后移
+		assertTrue(wheel.add(2, 1160));
+	}
+
+	@Test
+	public void rejectsOverCapacity() {
+		wheel.startClock();
+		for (long id = 1; id <= 5; id++) {
+			assertTrue(wheel.add(id, 1010));
+		}
+		assertFalse(wheel.add(6, 1010));
+		assertEquals(5, wheel.size());
+		advanceTo(1010);
+		assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), expired);
+		assertEquals(0, wheel.size());
+		assertTrue(wheel.add(6, 1020));
+	}
+
+	private void advanceTo(long time) {
+		now = time;
+		wheel.advanceClock();
+	}
+
+}
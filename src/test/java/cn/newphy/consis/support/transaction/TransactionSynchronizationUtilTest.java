@@ -0,0 +1,220 @@
+package cn.newphy.consis.support.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * 绑定到事务的同步器在内层REQUIRES_NEW事务中的行为
+ *
+ * @author Newphy
+ */
+public class TransactionSynchronizationUtilTest {
+
+	private final Object key = new Object();
+
+	private final List<String> events = new ArrayList<>();
+
+	// 提交前回调时的事务名称
+	private final List<String> flushes = new ArrayList<>();
+
+	private final FakeTransactionManager transactionManager = new FakeTransactionManager();
+
+	@After
+	public void tearDown() {
+		TransactionSynchronizationManager.unbindResourceIfPossible(key);
+		TransactionSynchronizationManager.unbindResourceIfPossible(FakeTransactionManager.TRANSACTION_KEY);
+	}
+
+	@Test
+	public void innerCommitUsesOwnSynchronization() {
+		final RecordingSynchronization[] holders = new RecordingSynchronization[2];
+		template("outer", TransactionDefinition.PROPAGATION_REQUIRED).execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				holders[0] = current("outer");
+				template("inner", TransactionDefinition.PROPAGATION_REQUIRES_NEW).execute(
+						new TransactionCallbackWithoutResult() {
+							@Override
+							protected void doInTransactionWithoutResult(TransactionStatus status) {
+								holders[1] = current("inner");
+							}
+						});
+				assertSame(holders[0], TransactionSynchronizationUtil.getResource(key));
+				assertEquals(Arrays.asList("inner:afterCommit"), events);
+			}
+		});
+		assertNotSame(holders[0], holders[1]);
+		assertEquals(Arrays.asList("inner:afterCommit", "outer:afterCommit"), events);
+		assertNull(TransactionSynchronizationUtil.getResource(key));
+	}
+
+	@Test
+	public void innerRollbackDiscardsOwnSynchronization() {
+		template("outer", TransactionDefinition.PROPAGATION_REQUIRED).execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				final RecordingSynchronization outer = current("outer");
+				template("inner", TransactionDefinition.PROPAGATION_REQUIRES_NEW).execute(
+						new TransactionCallbackWithoutResult() {
+							@Override
+							protected void doInTransactionWithoutResult(TransactionStatus status) {
+								assertNotSame(outer, current("inner"));
+								status.setRollbackOnly();
+							}
+						});
+				assertSame(outer, TransactionSynchronizationUtil.getResource(key));
+			}
+		});
+		assertEquals(Arrays.asList("outer:afterCommit"), events);
+		assertNull(TransactionSynchronizationUtil.getResource(key));
+	}
+
+	@Test
+	public void outerRollbackKeepsInnerCommit() {
+		template("outer", TransactionDefinition.PROPAGATION_REQUIRED).execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				current("outer");
+				template("inner", TransactionDefinition.PROPAGATION_REQUIRES_NEW).execute(
+						new TransactionCallbackWithoutResult() {
+							@Override
+							protected void doInTransactionWithoutResult(TransactionStatus status) {
+								current("inner");
+							}
+						});
+				status.setRollbackOnly();
+			}
+		});
+		assertEquals(Arrays.asList("inner:afterCommit"), events);
+		assertFalse(TransactionSynchronizationManager.hasResource(key));
+	}
+
+	@Test
+	public void innerFlushesBeforeOwnCommit() {
+		template("outer", TransactionDefinition.PROPAGATION_REQUIRED).execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				current("outer");
+				template("inner", TransactionDefinition.PROPAGATION_REQUIRES_NEW).execute(
+						new TransactionCallbackWithoutResult() {
+							@Override
+							protected void doInTransactionWithoutResult(TransactionStatus status) {
+								current("inner");
+							}
+						});
+				assertEquals(Arrays.asList("inner@inner"), flushes);
+				template("rollback", TransactionDefinition.PROPAGATION_REQUIRES_NEW).execute(
+						new TransactionCallbackWithoutResult() {
+							@Override
+							protected void doInTransactionWithoutResult(TransactionStatus status) {
+								current("rollback");
+								status.setRollbackOnly();
+							}
+						});
+			}
+		});
+		assertEquals(Arrays.asList("inner@inner", "outer@outer"), flushes);
+	}
+
+	/**
+	 * 与MQConsistencyHandler.currentMessages()相同的取得方式
+	 */
+	private RecordingSynchronization current(String name) {
+		RecordingSynchronization synchronization = TransactionSynchronizationUtil.getResource(key);
+		if (synchronization == null) {
+			synchronization = new RecordingSynchronization(name);
+			TransactionSynchronizationUtil.bindSynchronization(key, synchronization);
+		}
+		return synchronization;
+	}
+
+	private TransactionTemplate template(String name, int propagation) {
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		template.setName(name);
+		template.setPropagationBehavior(propagation);
+		return template;
+	}
+
+	private class RecordingSynchronization extends TransactionSynchronizationAdapter {
+		private final String name;
+
+		RecordingSynchronization(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public void beforeCommit(boolean readOnly) {
+			flushes.add(name + "@" + TransactionSynchronizationManager.getCurrentTransactionName());
+		}
+
+		@Override
+		public void afterCommit() {
+			events.add(name + ":afterCommit");
+		}
+	}
+
+	/**
+	 * 只维护事务绑定状态的事务管理器, 支持挂起和恢复
+	 */
+	@SuppressWarnings("serial")
+	private static class FakeTransactionManager extends AbstractPlatformTransactionManager {
+		static final Object TRANSACTION_KEY = new Object();
+
+		@Override
+		protected Object doGetTransaction() {
+			return new boolean[] { TransactionSynchronizationManager.hasResource(TRANSACTION_KEY) };
+		}
+
+		@Override
+		protected boolean isExistingTransaction(Object transaction) {
+			return ((boolean[]) transaction)[0];
+		}
+
+		@Override
+		protected void doBegin(Object transaction, TransactionDefinition definition) {
+			TransactionSynchronizationManager.bindResource(TRANSACTION_KEY, transaction);
+		}
+
+		@Override
+		protected Object doSuspend(Object transaction) {
+			return TransactionSynchronizationManager.unbindResource(TRANSACTION_KEY);
+		}
+
+		@Override
+		protected void doResume(Object transaction, Object suspendedResources) {
+			TransactionSynchronizationManager.bindResource(TRANSACTION_KEY, suspendedResources);
+		}
+
+		@Override
+		protected void doCommit(DefaultTransactionStatus status) {
+		}
+
+		@Override
+		protected void doRollback(DefaultTransactionStatus status) {
+		}
+
+		@Override
+		protected void doCleanupAfterCompletion(Object transaction) {
+			TransactionSynchronizationManager.unbindResourceIfPossible(TRANSACTION_KEY);
+		}
+	}
+
+}